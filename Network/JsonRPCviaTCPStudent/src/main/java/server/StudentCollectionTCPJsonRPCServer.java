@@ -37,19 +37,24 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
          if (numr != -1) {
             //System.out.println("read "+numr+" bytes");
             String request = new String(clientInput,0,numr);
-            System.out.println("request is: "+request);
+            boolean sampled = Log.sampled();
+            if (sampled) {
+               Log.info("request is: %s", request);
+            }
 
             // prep and send response
             String response = skeleton.callMethod(request);
             byte clientOut[] = response.getBytes();
 	         outSock.write(clientOut,0,clientOut.length);
-            System.out.println("response is: "+response);
+            if (sampled) {
+               Log.info("response is: %s", response);
+            }
          }
          inSock.close();
          outSock.close();
          conn.close();
       } catch (IOException e) {
-         System.out.println("I/O exception occurred for the connection:\n"+e.getMessage());
+         Log.warn("I/O exception occurred for the connection:%n%s", e.getMessage());
       }
    }
     
@@ -67,10 +72,9 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
          ServerSocket serv = new ServerSocket(portNo);
          // accept client requests. For each request create a new thread to handle
          while (true) { 
-            System.out.println("Student server waiting for connects on port "
-                               +portNo);
+            Log.info("Student server waiting for connects on port %d", portNo);
             sock = serv.accept();
-            System.out.println("Student server connected to client: "+id);
+            Log.info("Student server connected to client: %d", id);
             StudentCollectionTCPJsonRPCServer myServerThread =
                new StudentCollectionTCPJsonRPCServer(sock,id++,studCol);
             myServerThread.start();
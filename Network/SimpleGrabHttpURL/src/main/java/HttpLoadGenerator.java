@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the web servers of this repository (Sockets/WebServer,
+ * Sockets/SimpleWebServer, ...) built on the same HttpURLConnection fetching as
+ * SimpleGrabHttpURL.
+ *
+ * It sends requests at a fixed rate (open loop): request i is due at
+ * start + i / rate, no matter how long the earlier ones took. Every connection
+ * has its own thread which takes the next due request, waits for its time and
+ * sends it. When the server gets slow all connections are busy, the due requests
+ * pile up and start late, and that waiting counts into their latency because it
+ * is measured from the time the request was due, not from when it was sent.
+ * A closed loop (send, wait for the answer, send the next) would instead slow
+ * down together with the server and hide exactly the slow phases
+ * ("coordinated omission"). The time from sending to the answer is reported too
+ * ("service"), the difference between the two shows how far behind the
+ * generator fell.
+ *
+ * HttpURLConnection keeps connections alive in a cache per server; the cache is
+ * made as big as the number of connections, so every thread keeps reusing one.
+ *
+ * Only loopback addresses are accepted, this is for measuring our own servers.
+ *
+ * Usage: HttpLoadGenerator &lt;url&gt; [connections] [requests/second] [seconds]
+ */
+public class HttpLoadGenerator {
+	private final static int TIMEOUT_MILLIS = 10000;
+
+	private final URL url;
+	private final int connections;
+	private final double rate;
+	private final long total;
+
+	// latencies of request i in nanoseconds, from due and from sent, -1 if it failed
+	private final long[] latencies;
+	private final long[] serviceTimes;
+	private final AtomicLong next = new AtomicLong();
+	private final AtomicInteger errors = new AtomicInteger();
+	private final AtomicInteger notOk = new AtomicInteger();
+	private long start;
+
+	public HttpLoadGenerator(URL url, int connections, double rate, int seconds) {
+		this.url = url;
+		this.connections = connections;
+		this.rate = rate;
+		long requests = (long) (rate * seconds);
+		if (requests > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many requests, lower the rate or the duration");
+		}
+		this.total = requests;
+		this.latencies = new long[(int) requests];
+		this.serviceTimes = new long[(int) requests];
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Expected Arguments: <url(String)> [connections(int)] [requests/second(double)] [seconds(int)]");
+			System.exit(0);
+		}
+		URL url = new URL(args[0]);
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		double rate = args.length > 2 ? Double.parseDouble(args[2]) : 1000;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+		InetAddress host;
+		try {
+			host = InetAddress.getByName(url.getHost());
+		} catch (UnknownHostException e) {
+			host = null;
+		}
+		if (host == null || !host.isLoopbackAddress()) {
+			System.out.println("Only servers on localhost can be loaded, not " + url.getHost());
+			System.exit(1);
+		}
+		if (!url.getProtocol().equals("http")) {
+			System.out.println("Only http URLs are supported");
+			System.exit(1);
+		}
+
+		// the keep-alive cache keeps 5 idle connections per server by default, one per thread is needed
+		System.setProperty("http.maxConnections", String.valueOf(connections));
+
+		System.out.println(String.format("%s: %d connections, %.0f requests/s for %d s",
+				url, connections, rate, seconds));
+		HttpLoadGenerator generator = new HttpLoadGenerator(url, connections, rate, seconds);
+		generator.run();
+		System.out.println(generator.report());
+	}
+
+	/**
+	 * Sends all requests and returns when every one of them is answered or failed
+	 */
+	public void run() throws InterruptedException {
+		CountDownLatch finished = new CountDownLatch(connections);
+		start = System.nanoTime();
+		for (int i = 0; i < connections; i++) {
+			Thread worker = new Thread(() -> {
+				try {
+					work();
+				} finally {
+					finished.countDown();
+				}
+			}, "load-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+		finished.await();
+	}
+
+	private void work() {
+		byte[] buffer = new byte[16 * 1024];
+		long i;
+		while ((i = next.getAndIncrement()) < total) {
+			long due = start + (long) (i * 1e9 / rate);
+			long now;
+			while ((now = System.nanoTime()) < due) {
+				LockSupport.parkNanos(due - now);
+			}
+
+			long sent = now;
+			try {
+				HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+				conn.setConnectTimeout(TIMEOUT_MILLIS);
+				conn.setReadTimeout(TIMEOUT_MILLIS);
+				int status = SimpleGrabHttpURL.readResponse(conn, null, buffer);
+				if (status < 200 || status >= 400) {
+					notOk.incrementAndGet();
+				}
+				long done = System.nanoTime();
+				latencies[(int) i] = done - due;
+				serviceTimes[(int) i] = done - sent;
+			} catch (IOException e) {
+				// timed out, refused or reset, the connection is dropped from the cache
+				errors.incrementAndGet();
+				latencies[(int) i] = -1;
+				serviceTimes[(int) i] = -1;
+			}
+		}
+	}
+
+	/**
+	 * @return throughput and latency percentiles of the finished run
+	 */
+	public String report() {
+		long elapsed = System.nanoTime() - start;
+		long[] latency = answered(latencies);
+		long[] service = answered(serviceTimes);
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("requests=%d answered=%d errors=%d non2xx=%d elapsed=%.2fs throughput=%.1f/s%n",
+				total, latency.length, errors.get(), notOk.get(), elapsed / 1e9, latency.length / (elapsed / 1e9)));
+		report.append(line("latency", latency)).append(String.format("%n"));
+		report.append(line("service", service));
+		return report.toString();
+	}
+
+	private static String line(String name, long[] sorted) {
+		return String.format("%-8s p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+				name, percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+				percentile(sorted, 0.999), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+	}
+
+	/**
+	 * @return the times of all answered requests, sorted
+	 */
+	private static long[] answered(long[] times) {
+		return Arrays.stream(times).filter(time -> time >= 0).sorted().toArray();
+	}
+
+	private static double percentile(long[] sorted, double quantile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+}
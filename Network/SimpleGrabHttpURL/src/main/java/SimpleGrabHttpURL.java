@@ -16,33 +16,48 @@ public class SimpleGrabHttpURL {
 			System.exit(0);
 		}
 
-		HttpURLConnection conn = null;
-		BufferedReader instream = null;
 		try {
 			// creates instance that represents a connection to the remote object referred to by the URL.
-			conn = (HttpURLConnection) new URL(args[0]).openConnection();
+			HttpURLConnection conn = (HttpURLConnection) new URL(args[0]).openConnection();
 			Map<String, List<String>> map = conn.getHeaderFields(); // Get header fields of specified URL
 			for (Map.Entry<String, List<String>> entry : map.entrySet()) {
 				System.out.println("Key : " + entry.getKey() + 
 		                 " ,Value : " + entry.getValue());
 			}
-			// input stream that reads from this open connection
-			instream = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-			String line = null;
-			while ((line = instream.readLine()) != null) {
-				System.out.println(line);
-			}
+			// input stream that reads from this open connection, copied to the console
+			readResponse(conn, System.out, new byte[8192]);
+			System.out.flush();
 		}
 		catch (IOException exc) {
 			exc.printStackTrace();
 		}
-		finally {
-			try {
-				if (instream != null) instream.close(); // close input stream
-			}
-			catch (Throwable t) {
-				t.printStackTrace();
+	}
+
+	/**
+	 * Reads the whole body of a response and closes its input stream. Closing the stream
+	 * (and not calling disconnect()) hands the socket back to the keep-alive cache of
+	 * HttpURLConnection, so the next request to the same server reuses the connection.
+	 * The body of an error response (4xx, 5xx) is in the error stream instead.
+	 * Also used by HttpLoadGenerator.
+	 * @param conn connection the request was sent on
+	 * @param out where the body is copied to, null to drop it
+	 * @param buffer buffer to copy through
+	 * @return status code of the response
+	 */
+	public static int readResponse(HttpURLConnection conn, OutputStream out, byte[] buffer) throws IOException {
+		int status = conn.getResponseCode();
+		InputStream body = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+		if (body == null) { // no body at all
+			return status;
+		}
+		try (InputStream in = body) {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				if (out != null) {
+					out.write(buffer, 0, read);
+				}
 			}
 		}
+		return status;
 	}
 }
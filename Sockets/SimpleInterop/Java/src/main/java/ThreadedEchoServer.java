@@ -37,7 +37,9 @@ public class ThreadedEchoServer extends Thread {
       while (numr != -1) {
         // System.out.println("read "+numr+" bytes");
         String clientString = new String(clientInput, 0, numr);
-        System.out.println("read from client: " + id + " the string: " + clientString);
+        if (Log.sampled()) {
+          Log.info("read from client: %d the string: %s", id, clientString);
+        }
         outSock.write(clientInput, 0, numr);
         numr = inSock.read(clientInput, 0, bufLen);
       }
@@ -45,7 +47,7 @@ public class ThreadedEchoServer extends Thread {
       outSock.close();
       conn.close();
     } catch (IOException e) {
-      System.out.println("Can't get I/O for the connection.");
+      Log.warn("Can't get I/O for the connection %d: %s", id, e.toString());
     }
   }
 
@@ -62,9 +64,9 @@ public class ThreadedEchoServer extends Thread {
         portNo = 8888;
       ServerSocket serv = new ServerSocket(portNo);
       while (true) {
-        System.out.println("Echo server waiting for connects on port " + portNo);
+        Log.info("Echo server waiting for connects on port %d", portNo);
         sock = serv.accept();
-        System.out.println("Echo server connected to client: " + id);
+        Log.info("Echo server connected to client: %d", id);
         ThreadedEchoServer myServerThread = new ThreadedEchoServer(sock, id++);
         myServerThread.start();
       }
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Sends a body whose length is not known up front with
+ * "Transfer-Encoding: chunked": every chunk is its length in hex, CRLF, the
+ * bytes and another CRLF, a chunk of length 0 ends the body.
+ *
+ * The body is copied through one fixed buffer which is reused for every chunk,
+ * so sending a huge body takes no more memory than sending a small one.
+ */
+class ChunkedWriter {
+
+    final static int CHUNK_BYTES = 16 * 1024;
+    // in front of the data: up to 8 hex digits and CRLF
+    private final static int SIZE_ROOM = 10;
+    private final static byte[] HEX = "0123456789abcdef".getBytes();
+    private final static byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final WritableByteChannel out;
+    // size line, data and CRLF of one chunk
+    private final ByteBuffer chunk = ByteBuffer.allocate(SIZE_ROOM + CHUNK_BYTES + 2);
+
+    /**
+     * @param out channel to the client, the header (with Transfer-Encoding: chunked)
+     * has to be written already
+     */
+    public ChunkedWriter(WritableByteChannel out) {
+        this.out = out;
+    }
+
+    /**
+     * Sends everything the channel delivers until its end and then the last chunk
+     *
+     * @param in body to send
+     */
+    public void copy(ReadableByteChannel in) throws IOException {
+        while (true) {
+            chunk.clear();
+            chunk.position(SIZE_ROOM);
+            chunk.limit(SIZE_ROOM + CHUNK_BYTES);
+            int read = in.read(chunk);
+            if (read < 0) {
+                break;
+            }
+            if (read > 0) {
+                writeChunk(read);
+            }
+        }
+        finish();
+    }
+
+    /**
+     * Ends the body, nothing may be written afterwards
+     */
+    public void finish() throws IOException {
+        writeFully(ByteBuffer.wrap(LAST_CHUNK));
+    }
+
+    /**
+     * Puts the size line in front of the data already in the buffer and the CRLF behind it
+     */
+    private void writeChunk(int length) throws IOException {
+        int start = SIZE_ROOM - 2;
+        chunk.put(start, (byte) '\r');
+        chunk.put(start + 1, (byte) '\n');
+        int rest = length;
+        do {
+            chunk.put(--start, HEX[rest & 0xF]);
+            rest >>>= 4;
+        } while (rest != 0);
+
+        chunk.limit(SIZE_ROOM + length + 2);
+        chunk.put(SIZE_ROOM + length, (byte) '\r');
+        chunk.put(SIZE_ROOM + length + 1, (byte) '\n');
+        chunk.position(start);
+        writeFully(chunk);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -1,15 +1,74 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import compression.CompressedFiles;
+import compression.Compression;
 
 public class SimpleWebServer {
 
+    /**
+     * How the ClientHandler of every accepted connection is run.
+     * VIRTUAL: one virtual thread per connection (needs Java 21, falls back to POOL),
+     * POOL: a fixed number of platform threads with a bounded queue,
+     * THREAD: a new platform thread per connection, the way it was done originally.
+     */
+    public enum Mode { VIRTUAL, POOL, THREAD }
+
+    // size of the POOL mode, connections beyond threads + queue are turned away
+    final static int POOL_THREADS = 200;
+    final static int POOL_QUEUE = 1000;
+
+    // admission control, can be changed with -DmaxConnections=... etc.
+    // connections being worked on at the same time, more get a 503 right away
+    final static int MAX_CONNECTIONS = Integer.getInteger("maxConnections", 1000);
+    // connections one client address may have at the same time
+    final static int MAX_PER_CLIENT = Integer.getInteger("maxPerClient", 50);
+    // connections the OS keeps waiting for accept() before it refuses new ones
+    final static int BACKLOG = Integer.getInteger("backlog", 256);
+    // a client that does not send anything for this long is dropped
+    final static int READ_TIMEOUT_MILLIS = Integer.getInteger("readTimeoutMillis", 10 * 1000);
+
+    // sent without reading the request when the server is full, fixed so it costs nothing to make
+    private final static String BUSY_PAGE = "<html>Server busy, try again.</html>";
+    private final static byte[] BUSY = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Content-Type: text/html; charset=utf-8\r\n"
+            + "Content-Length: " + BUSY_PAGE.length() + "\r\n"
+            + "Retry-After: 1\r\n"
+            + "Connection: close\r\n"
+            + "\r\n"
+            + BUSY_PAGE).getBytes(StandardCharsets.US_ASCII);
+
+    private final Executor executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, Integer> perClient = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
     // 
     public static void main(String args[]) {
         int port = 9099; // default port
-        if (args.length != 1) {
+        Mode mode = Mode.VIRTUAL;
+        if (args.length != 1 && args.length != 2) {
 
-            System.out.println("Expected arguments: <port(int)>");
+            System.out.println("Expected arguments: <port(int)> [virtual|pool|thread]");
             System.exit(1);
         }
         System.out.println("running");
@@ -19,12 +78,26 @@ try {
             System.out.println("[Port] must be integer");
             System.exit(2);
         }
+        if (args.length == 2) {
+            try {
+                mode = Mode.valueOf(args[1].toUpperCase());
+            } catch (IllegalArgumentException iae) {
+                System.out.println("[Mode] must be virtual, pool or thread");
+                System.exit(2);
+            }
+        }
 
-        SimpleWebServer server = new SimpleWebServer(port);
+        SimpleWebServer server = new SimpleWebServer(port, mode);
 
     }
 
     public SimpleWebServer(int port) {
+        this(port, Mode.VIRTUAL);
+    }
+
+    public SimpleWebServer(int port, Mode mode) {
+
+        executor = createExecutor(mode);
 
         ServerSocket server = null;
         Socket sock = null;
@@ -37,14 +110,19 @@ try {
             //***   Write the bytes to the socket's output stream
             //***   close streams and socket appropriately
 
-            server = new ServerSocket(port);
+            // opened through a channel so the accepted sockets have a SocketChannel
+            // which files can be transferred to without copying them onto the heap
+            server = ServerSocketChannel.open().socket();
+            // a bounded backlog, beyond it the OS refuses connections instead of
+            // letting them pile up unseen
+            server.bind(new InetSocketAddress(port), BACKLOG);
 
         } catch (IOException ex) {
             ex.printStackTrace();
         }
 
+        System.out.println("Ready...");
         while (server.isBound() && !server.isClosed()) {
-            System.out.println("Ready...");
             try {
                 sock = server.accept();
                 createClientThread(sock);
@@ -55,15 +133,104 @@ try {
     }
 
     /**
-     * Take the newly accepted socket and make it a thread by passing it to
-     * inner class ClientHandler which implements Runnable; subsequently start
-     * the thread up so it can be processed.
+     * Creates what runs the ClientHandlers for the given mode
+     */
+    static Executor createExecutor(Mode mode) {
+        switch (mode) {
+            case VIRTUAL:
+                try {
+                    // looked up instead of called so the server still builds and runs before Java 21
+                    Executor virtual = (Executor) Executors.class
+                            .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                    System.out.println("Running every connection on a virtual thread");
+                    return virtual;
+                } catch (ReflectiveOperationException ex) {
+                    System.out.println("Virtual threads need Java 21, using a bounded pool instead");
+                    return createExecutor(Mode.POOL);
+                }
+            case POOL:
+                System.out.println("Running connections on " + POOL_THREADS + " threads");
+                return new ThreadPoolExecutor(POOL_THREADS, POOL_THREADS,
+                        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(POOL_QUEUE));
+            default:
+                System.out.println("Running every connection on a new thread");
+                return task -> new Thread(task).start();
+        }
+    }
+
+    /**
+     * Take the newly accepted socket and hand it to inner class ClientHandler
+     * which implements Runnable; the executor of the selected mode runs it.
      *
      * @param sock
      */
     private void createClientThread(Socket sock) {
-        Thread thread = new Thread(new ClientHandler(sock));
-        thread.start();
+        InetAddress client = sock.getInetAddress();
+        if (!admit(client)) {
+            reject(sock);
+            return;
+        }
+        try {
+            // a client that stops sending must not hold its slot forever
+            sock.setSoTimeout(READ_TIMEOUT_MILLIS);
+            ClientHandler handler = new ClientHandler(sock);
+            executor.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    release(client);
+                }
+            });
+        } catch (IOException | RejectedExecutionException ex) {
+            // every pool thread is busy and the queue is full
+            release(client);
+            reject(sock);
+        }
+    }
+
+    /**
+     * Takes a slot for the connection if the server and the client are below their limits
+     *
+     * @return false if the connection has to be turned away
+     */
+    private boolean admit(InetAddress client) {
+        if (inFlight.incrementAndGet() > MAX_CONNECTIONS) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        if (perClient.merge(client, 1, Integer::sum) > MAX_PER_CLIENT) {
+            release(client);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(InetAddress client) {
+        perClient.computeIfPresent(client, (address, count) -> count == 1 ? null : count - 1);
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Answers 503 right on the accept thread and closes the connection. The answer
+     * fits into the empty send buffer of the new socket, so this does not block.
+     */
+    private void reject(Socket sock) {
+        long count = rejected.incrementAndGet();
+        if (count % 1000 == 1) {
+            System.out.println("Server full, " + count + " connections turned away so far");
+        }
+        try {
+            sock.getOutputStream().write(BUSY);
+            sock.shutdownOutput();
+        } catch (IOException ex) {
+            // the client is gone already, nothing to tell it
+        } finally {
+            try {
+                sock.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
     }
 }
 
@@ -76,9 +243,17 @@ try {
  */
 class ClientHandler implements Runnable {
 
+    // compressed variants of the text files, shared by all connections
+    private final static CompressedFiles compressedFiles = new CompressedFiles(16 * 1024 * 1024);
+    // files are only served from below the working directory
+    private final static Path docRoot = Paths.get("").toAbsolutePath().normalize();
+    // the same with symbolic links resolved, to check where links point to
+    private final static Path realDocRoot = realPath(docRoot);
+
     //establish a new socket to read client input from (via BufferedReader)
     InputStream in = null;
     OutputStream out = null;
+    WritableByteChannel channel = null;
 
     /**
      * ClientHandler is the constructor that accepts a client socket & chains it
@@ -92,6 +267,10 @@ class ClientHandler implements Runnable {
             //Set local socket to clientSocket received via constructor
             in = clientSocket.getInputStream();
             out = clientSocket.getOutputStream();
+            // sockets accepted by a ServerSocketChannel have a channel, which lets
+            // transferTo use sendfile; otherwise fall back to wrapping the stream
+            channel = clientSocket.getChannel() != null
+                    ? clientSocket.getChannel() : Channels.newChannel(out);
 
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -115,53 +294,290 @@ class ClientHandler implements Runnable {
 
             String filename = null;
             String line = in.readLine();
-            System.out.println("Received: " + line);
             if (line != null && !line.trim().equals("")) {
                 StringTokenizer st = new StringTokenizer(line);
                 if (st.nextToken().equals("GET") && st.hasMoreTokens()) {
                     filename = st.nextToken();
-                    if (filename.startsWith("/")) {
-                        filename = filename.substring(1);
-                    }
                 }
             }
-            System.out.println("FINISHED REQUEST, STARTING RESPONSE\n");
 
             // Generate an appropriate response to the user
             if (filename == null) {
                 response =
                         "<html>Illegal request: no GET</html>".getBytes();
             } else {
-                File file = new File(filename);
-                if (!file.exists()) {
+                Path path = resolve(filename);
+                File file = path == null ? null : path.toFile();
+                if (file == null || !file.isFile()) {
                     response = ("<html>File not found: "
                             + filename + "</html>").getBytes();
                 } else {
                     response = readFileInBytes(file);
                 }
             }
-        } catch (IOException e) {
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
             e.printStackTrace();
             response = ("<html>ERROR: "
                     + e.getMessage() + "</html").getBytes();
         }
-        System.out.println("RESPONSE GENERATED!");
         return response;
     }
 
     /**
-     * Read bytes from a file and return them in the byte array. We read in
-     * blocks of 512 bytes for efficiency.
+     * Reads the request and streams the response to the client. The file is
+     * never loaded into memory, FileChannel.transferTo copies it to the socket
+     * in the kernel. A single "Range: bytes=first-last" header is honored so
+     * clients can fetch parts of large files. Files that do not know their
+     * length are sent with chunked transfer encoding through a ChunkedWriter.
+     *
+     * @param inStream request from the client
+     * @param out channel to the client
      */
-    public static byte[] readFileInBytes(File f)
+    public void writeResponse(InputStream inStream, WritableByteChannel out)
             throws IOException {
 
-        byte[] result = new byte[(int) f.length()];
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(inStream, "UTF-8"));
+
+        String filename = null;
+        String range = null;
+        String acceptEncoding = null;
+        String line = in.readLine();
+        if (line != null && !line.trim().equals("")) {
+            StringTokenizer st = new StringTokenizer(line);
+            if (st.nextToken().equals("GET") && st.hasMoreTokens()) {
+                filename = st.nextToken();
+            }
+        }
+        // rest of the header, we only care about Range and Accept-Encoding
+        while (line != null && !line.equals("")) {
+            line = in.readLine();
+            if (line != null && line.regionMatches(true, 0, "Range:", 0, 6)) {
+                range = line.substring(6).trim();
+            } else if (line != null && line.regionMatches(true, 0, "Accept-Encoding:", 0, 16)) {
+                acceptEncoding = line.substring(16).trim();
+            }
+        }
 
+        if (filename == null) {
+            writeText(out, "400 Bad Request", "<html>Illegal request: no GET</html>");
+            return;
+        }
+        Path path;
         try {
-            new FileInputStream(f).read(result);
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            path = resolve(filename);
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            writeText(out, "400 Bad Request", "<html>Illegal path</html>");
+            return;
+        }
+        if (path == null) {
+            writeText(out, "403 Forbidden", "<html>Forbidden</html>");
+            return;
+        }
+        File file = path.toFile();
+        if (!file.isFile() || !file.canRead()) {
+            writeText(out, "404 Not Found", "<html>File not found</html>");
+            return;
+        }
+
+        try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+            long length = fileChannel.size();
+            String contentType = URLConnection.guessContentTypeFromName(file.getName());
+            if (contentType == null) {
+                contentType = "application/octet-stream";
+            }
+
+            if (length == 0) {
+                // files like the ones in /proc report a size of 0 and still have
+                // content, we only know how long they are after reading them, so
+                // they go out in chunks
+                String header = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: " + contentType + "\r\n"
+                        + "Transfer-Encoding: chunked\r\n"
+                        + "\r\n";
+                writeFully(out, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+                new ChunkedWriter(out).copy(fileChannel);
+                return;
+            }
+
+            // text goes out compressed if the client takes it, the compressed
+            // variant is made once and then served from memory
+            String encoding = Compression.negotiate(acceptEncoding);
+            boolean compressible = Compression.isCompressible(contentType);
+            if (range == null && encoding != null && CompressedFiles.shouldCompress(contentType, length)) {
+                byte[] body = compressedFiles.get(file, encoding);
+                String header = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: " + contentType + "\r\n"
+                        + "Content-Encoding: " + encoding + "\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Vary: Accept-Encoding\r\n"
+                        + "\r\n";
+                writeFully(out, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+                writeFully(out, ByteBuffer.wrap(body));
+                return;
+            }
+
+            long first = 0;
+            long last = length - 1;
+            String status = "200 OK";
+            String contentRange = "";
+
+            long[] parsed = parseRange(range, length);
+            if (parsed != null && parsed.length == 0) {
+                writeText(out, "416 Range Not Satisfiable", "Content-Range: bytes */" + length + "\r\n", "");
+                return;
+            } else if (parsed != null) {
+                first = parsed[0];
+                last = parsed[1];
+                status = "206 Partial Content";
+                contentRange = "Content-Range: bytes " + first + "-" + last
+                        + "/" + length + "\r\n";
+            }
+
+            String header = "HTTP/1.1 " + status + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Length: " + (last - first + 1) + "\r\n"
+                    + "Accept-Ranges: bytes\r\n"
+                    + (compressible ? "Vary: Accept-Encoding\r\n" : "")
+                    + contentRange
+                    + "\r\n";
+            writeFully(out, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+
+            long position = first;
+            while (position <= last) {
+                long sent = fileChannel.transferTo(position, last - position + 1, out);
+                if (sent <= 0 && position >= fileChannel.size()) {
+                    // the file got shorter since its length was taken, the promised
+                    // Content-Length cannot be met, the connection is closed after this
+                    throw new IOException(file + " shrank while it was sent");
+                }
+                position += sent;
+            }
+        }
+    }
+
+    /**
+     * Maps the request target to a file below the docroot. The target is decoded
+     * (%20 etc.) and the query is dropped.
+     *
+     * @return the file or null if the target points outside the docroot
+     */
+    static Path resolve(String target) throws URISyntaxException {
+        String decoded = new URI(target).getPath();
+        if (decoded == null) {
+            throw new URISyntaxException(target, "No path");
+        }
+        // strip the leading slashes, an absolute path would replace the docroot
+        Path path = docRoot.resolve(decoded.replaceFirst("^/+", "")).normalize();
+        if (!path.startsWith(docRoot)) {
+            return null; // "../" out of the docroot
+        }
+        try {
+            // a symbolic link below the docroot may still point anywhere
+            if (Files.exists(path) && !path.toRealPath().startsWith(realDocRoot)) {
+                return null;
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+        return path;
+    }
+
+    private static Path realPath(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException ex) {
+            return path;
+        }
+    }
+
+    /**
+     * Parses a single "bytes=first-last", "bytes=first-" or "bytes=-suffixLength"
+     * range.
+     *
+     * @return null for the whole file, an empty array if the range cannot be
+     * satisfied, otherwise first and last byte (inclusive)
+     */
+    static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                return suffix == 0 ? new long[0]
+                        : new long[]{Math.max(0, length - suffix), length - 1};
+            } else if (dash > 0) {
+                long first = Long.parseLong(spec.substring(0, dash));
+                long last = dash == spec.length() - 1
+                        ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (last < first) {
+                    return null;
+                }
+                return first >= length ? new long[0]
+                        : new long[]{first, Math.min(last, length - 1)};
+            }
+        } catch (NumberFormatException ex) {
+            // ignore a broken Range header and send everything
+        }
+        return null;
+    }
+
+    private static void writeText(WritableByteChannel out, String status, String body)
+            throws IOException {
+        writeText(out, status, "", body);
+    }
+
+    /**
+     * @param extraHeaders - complete header lines, each ending in CRLF
+     */
+    private static void writeText(WritableByteChannel out, String status, String extraHeaders, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 " + status + "\r\n"
+                + extraHeaders
+                + "Content-Type: text/html; charset=utf-8\r\n"
+                + "Content-Length: " + bytes.length + "\r\n"
+                + "\r\n";
+        writeFully(out, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+        writeFully(out, ByteBuffer.wrap(bytes));
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Read bytes from a file and return them in the byte array. A single
+     * read() may return fewer bytes than asked for, so we keep reading until
+     * the array is full. Only meant for small files, writeResponse streams
+     * files of any size.
+     *
+     * @throws IOException if the file cannot be read or does not fit in an array
+     */
+    public static byte[] readFileInBytes(File f)
+            throws IOException {
+
+        long length = f.length();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("File too large to read into memory: " + f);
+        }
+        byte[] result = new byte[(int) length];
+
+        try (FileInputStream in = new FileInputStream(f)) {
+            int offset = 0;
+            while (offset < result.length) {
+                int read = in.read(result, offset, result.length - offset);
+                if (read < 0) {
+                    throw new EOFException("File got shorter while reading: " + f);
+                }
+                offset += read;
+            }
         }
 
         return result;
@@ -169,9 +585,10 @@ class ClientHandler implements Runnable {
 
     @Override
     public void run() {
-        System.out.println("Starting thread");
         try {
-            out.write(createResponse(in));
+            writeResponse(in, channel);
+        } catch (SocketTimeoutException ex) {
+            System.out.println("Client did not send its request in time, closing");
         } catch (IOException ex) {
             ex.printStackTrace();
         } finally {
@@ -182,7 +599,5 @@ class ClientHandler implements Runnable {
                 ex.printStackTrace();
             }
         }
-
-        System.out.println("Ending thread");
     }
 }
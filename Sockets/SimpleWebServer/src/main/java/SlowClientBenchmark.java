@@ -0,0 +1,218 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compares the execution modes of SimpleWebServer with many slow clients.
+ *
+ * Every client connects, sends the first line of its request, waits a while
+ * (like a client on a bad network) and only then sends the rest. The server
+ * holds one handler per connection while it waits, which is exactly what
+ * separates the modes: a thread per connection needs one platform thread per
+ * slow client, the pool makes the clients queue for its threads and virtual
+ * threads are cheap enough to just have one per client.
+ *
+ * All clients run on a single selector thread here, so the benchmark itself
+ * does not need thousands of threads. The server runs in the same JVM so its
+ * peak thread count can be reported; with "all" every mode gets a JVM of its own
+ * so the threads of one run do not show up in the next.
+ *
+ * All clients come from localhost, so the admission limits of the server
+ * (maxConnections, maxPerClient, backlog) are raised to the number of clients
+ * unless they are given with -D; otherwise most clients would just get a 503.
+ * Only a client that got "HTTP/1.1 200" counts as ok.
+ *
+ * Usage: SlowClientBenchmark [virtual|pool|thread|all] [clients] [delayMillis]
+ * Default is all modes with 10000 clients waiting 1000 ms each. Every client
+ * and every server side socket needs a file descriptor, check ulimit -n.
+ */
+public class SlowClientBenchmark {
+    private final static int PORT = 9100;
+    private final static long TIMEOUT_MILLIS = 120 * 1000;
+
+    private final static byte[] REQUEST_START =
+            "GET /index.html HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] REQUEST_END =
+            "Host: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] STATUS_OK = "HTTP/1.1 200".getBytes(StandardCharsets.US_ASCII);
+    private final static String[] LIMITS = {"maxConnections", "maxPerClient", "backlog"};
+
+    public static void main(String args[]) throws Exception {
+        String modes = args.length > 0 ? args[0] : "all";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        long delayMillis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        // set before SimpleWebServer reads them, it must let every client in
+        for (String limit : LIMITS) {
+            if (System.getProperty(limit) == null) {
+                System.setProperty(limit, String.valueOf(clients));
+            }
+        }
+
+        if (modes.equalsIgnoreCase("all")) {
+            for (SimpleWebServer.Mode mode : SimpleWebServer.Mode.values()) {
+                List<String> command = new ArrayList<>();
+                command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+                for (String limit : LIMITS) {
+                    command.add("-D" + limit + "=" + System.getProperty(limit));
+                }
+                command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                        SlowClientBenchmark.class.getName(),
+                        mode.name(), String.valueOf(clients), String.valueOf(delayMillis)));
+                Process child = new ProcessBuilder(command).inheritIO().start();
+                child.waitFor();
+            }
+            return;
+        }
+
+        SimpleWebServer.Mode mode = SimpleWebServer.Mode.valueOf(modes.toUpperCase());
+        System.out.println(run(mode, PORT, clients, delayMillis));
+        System.exit(0);
+    }
+
+    private static String run(SimpleWebServer.Mode mode, int port, int clients, long delayMillis)
+            throws Exception {
+        Thread server = new Thread(() -> new SimpleWebServer(port, mode));
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(500); // give it time to bind
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+
+        long[] latencies = new long[clients];
+        ByteBuffer discard = ByteBuffer.allocate(64 * 1024);
+        int done = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clients; i++) {
+                Client client = new Client();
+                client.channel = SocketChannel.open();
+                client.channel.configureBlocking(false);
+                client.channel.connect(new InetSocketAddress("localhost", port));
+                client.channel.register(selector, SelectionKey.OP_CONNECT, client);
+                client.started = System.nanoTime();
+            }
+
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (done + failed < clients && System.currentTimeMillis() < deadline) {
+                selector.select(10);
+                long now = System.nanoTime();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isConnectable() && client.channel.finishConnect()) {
+                            write(client.channel, REQUEST_START);
+                            client.sendRestAt = now + delayMillis * 1000000;
+                            key.interestOps(0);
+                        } else if (key.isReadable()) {
+                            // only the status line is looked at, the rest just has to arrive
+                            int read = client.channel.read(discard);
+                            discard.flip();
+                            client.keepStatus(discard);
+                            discard.clear();
+                            if (read < 0) { // server closed after the response
+                                if (client.isOk()) {
+                                    latencies[done++] = now - client.started;
+                                } else {
+                                    failed++; // e.g. a 503 from the admission control
+                                }
+                                key.cancel();
+                                client.channel.close();
+                            }
+                        }
+                    } catch (IOException ex) {
+                        failed++;
+                        key.cancel();
+                        client.channel.close();
+                    }
+                }
+
+                // the slow part, clients whose delay is over send the rest of the request
+                for (SelectionKey key : selector.keys()) {
+                    Client client = (Client) key.attachment();
+                    if (key.isValid() && client.sendRestAt != 0 && client.sendRestAt <= now) {
+                        client.sendRestAt = 0;
+                        try {
+                            write(client.channel, REQUEST_END);
+                            key.interestOps(SelectionKey.OP_READ);
+                        } catch (IOException ex) {
+                            failed++;
+                            key.cancel();
+                            client.channel.close();
+                        }
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        int timedOut = clients - done - failed;
+        Arrays.sort(latencies, 0, done);
+        return String.format("%-8s clients=%d ok=%d failed=%d timedOut=%d total=%dms"
+                        + " p50=%dms p99=%dms max=%dms peakThreads=%d",
+                mode, clients, done, failed, timedOut, elapsed / 1000000,
+                percentile(latencies, done, 0.5), percentile(latencies, done, 0.99),
+                done == 0 ? 0 : latencies[done - 1] / 1000000, threads.getPeakThreadCount());
+    }
+
+    private static long percentile(long[] sorted, int count, double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(count - 1, Math.ceil(quantile * count) - 1);
+        return sorted[Math.max(0, index)] / 1000000;
+    }
+
+    /**
+     * The request lines are tiny, a fresh socket buffer takes them in one write
+     */
+    private static void write(SocketChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        channel.write(buffer);
+        if (buffer.hasRemaining()) {
+            throw new IOException("Could not send the request");
+        }
+    }
+
+    private static class Client {
+        SocketChannel channel;
+        long started;
+        long sendRestAt;
+        final byte[] status = new byte[STATUS_OK.length];
+        int statusLength;
+
+        /**
+         * Keeps the start of the status line out of what was read
+         */
+        void keepStatus(ByteBuffer read) {
+            while (statusLength < status.length && read.hasRemaining()) {
+                status[statusLength++] = read.get();
+            }
+        }
+
+        boolean isOk() {
+            return statusLength == status.length && Arrays.equals(status, STATUS_OK);
+        }
+    }
+}
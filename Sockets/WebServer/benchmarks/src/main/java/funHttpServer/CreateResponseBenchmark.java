@@ -0,0 +1,75 @@
+package funHttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the fun WebServer without any network: the request is read from
+ * an in-memory stream and createResponse builds the response bytes, so the numbers
+ * only cover parsing, routing, the endpoints and framing.
+ *
+ * /github is left out, it waits on GitHub (or the cached answer of it).
+ *
+ * Run with gradle :benchmarks:jmh (from Sockets/WebServer, the server needs www/).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreateResponseBenchmark {
+
+  @Param({
+      "/",
+      "/json",
+      "/random",
+      "/file/www/index.html",
+      "/multiply?num1=3&num2=4",
+      "/fortuneTeller?number=7&color=red",
+      "/concatenateWords?word1=hello&word2=world",
+      "/metrics",
+      "/unknown"
+  })
+  public String path;
+
+  // "" sends no Accept-Encoding, "gzip" lets text responses be compressed
+  @Param({"", "gzip"})
+  public String encoding;
+
+  private WebServer server;
+  private byte[] request;
+
+  @Setup
+  public void setup() {
+    if (!new File("www/root.html").isFile()) {
+      throw new IllegalStateException("Run from Sockets/WebServer, www/ is missing in " + new File("").getAbsolutePath());
+    }
+    server = new WebServer();
+    request = ("GET " + path + " HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + (encoding.isEmpty() ? "" : "Accept-Encoding: " + encoding + "\r\n")
+        + "\r\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * The whole request/response cycle of one route
+   */
+  @Benchmark
+  public byte[] createResponse() {
+    return server.createResponse(new ByteArrayInputStream(request));
+  }
+}
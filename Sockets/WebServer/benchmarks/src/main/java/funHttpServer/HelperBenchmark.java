@@ -0,0 +1,65 @@
+package funHttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the static helpers of the fun WebServer.
+ *
+ * Run with gradle :benchmarks:jmh (from Sockets/WebServer, the helpers read www/).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelperBenchmark {
+
+  private File indexFile;
+
+  @Setup
+  public void setup() {
+    indexFile = new File("www/index.html");
+    if (!indexFile.isFile()) {
+      throw new IllegalStateException("Run from Sockets/WebServer, www/ is missing in " + new File("").getAbsolutePath());
+    }
+  }
+
+  @Benchmark
+  public Map<String, String> splitQuery() throws UnsupportedEncodingException {
+    return WebServer.splitQuery("num1=3&num2=4&word1=hello%20you&word2=world&color=dark+red");
+  }
+
+  /**
+   * What the endpoints use instead of splitQuery, for comparison
+   */
+  @Benchmark
+  public int queryGetInt() {
+    Query query = new Query("num1=3&num2=4&word1=hello%20you&word2=world&color=dark+red");
+    return query.getInt("num1") * query.getInt("num2");
+  }
+
+  @Benchmark
+  public String buildFileList() {
+    return WebServer.buildFileList();
+  }
+
+  @Benchmark
+  public byte[] readFileInBytes() throws IOException {
+    return WebServer.readFileInBytes(indexFile);
+  }
+}
@@ -0,0 +1,101 @@
+package compression;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Compressed (gzip/deflate) variants of files for a file server, kept in memory
+ * so a file is compressed once and not on every request.
+ *
+ * A variant is only used while modification time and size of the file are
+ * unchanged. The cache is bounded by bytes and drops the least recently used
+ * variant first. Only text files between Compression.MIN_BYTES and
+ * MAX_FILE_BYTES are compressed, everything else is sent as it is. Negotiating
+ * and compressing is done by Compression.
+ */
+public class CompressedFiles {
+
+  // large files are streamed instead of held in memory
+  public final static long MAX_FILE_BYTES = 1024 * 1024;
+
+  private static class Variant {
+    final byte[] bytes;
+    final long lastModified;
+    final long length;
+
+    Variant(byte[] bytes, long lastModified, long length) {
+      this.bytes = bytes;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+
+  private final long maxBytes;
+  private long currentBytes = 0;
+  // access ordered, so iteration starts with the least recently used variant
+  private final LinkedHashMap<String, Variant> variants = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * @param maxBytes upper bound for all compressed variants together
+   */
+  public CompressedFiles(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return true if a file of this type and length is sent compressed when the client accepts it
+   */
+  public static boolean shouldCompress(String contentType, long length) {
+    return length >= Compression.MIN_BYTES && length <= MAX_FILE_BYTES
+        && Compression.isCompressible(contentType);
+  }
+
+  /**
+   * Returns the compressed file, from memory if it did not change on disk
+   *
+   * @param file file to compress, at most MAX_FILE_BYTES
+   * @param encoding Compression.GZIP or Compression.DEFLATE
+   */
+  public byte[] get(File file, String encoding) throws IOException {
+    String key = encoding + ":" + file.getCanonicalPath();
+    long lastModified = file.lastModified();
+    long length = file.length();
+
+    synchronized (this) {
+      Variant cached = variants.get(key);
+      if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+        return cached.bytes;
+      }
+    }
+
+    // compressed outside the lock so cache hits are not held up
+    // the variant is kept, so it is worth spending the time on the best compression
+    byte[] content = Files.readAllBytes(file.toPath());
+    byte[] bytes = Compression.compress(content, 0, content.length, encoding, Deflater.BEST_COMPRESSION);
+    Variant variant = new Variant(bytes, lastModified, length);
+
+    synchronized (this) {
+      Variant old = variants.put(key, variant);
+      if (old != null) {
+        currentBytes -= old.bytes.length;
+      }
+      currentBytes += variant.bytes.length;
+
+      Iterator<Map.Entry<String, Variant>> eldest = variants.entrySet().iterator();
+      while (currentBytes > maxBytes && eldest.hasNext()) {
+        Variant evicted = eldest.next().getValue();
+        if (evicted == variant) {
+          continue;
+        }
+        currentBytes -= evicted.bytes.length;
+        eldest.remove();
+      }
+    }
+    return variant.bytes;
+  }
+}
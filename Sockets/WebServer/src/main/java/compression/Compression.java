@@ -0,0 +1,135 @@
+package compression;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Content-Encoding support: picks the encoding from the client's Accept-Encoding
+ * header and compresses bodies with gzip or deflate.
+ *
+ * Shared by the servers in funHttpServer and httpServer and by SimpleWebServer,
+ * which compiles this package along with its own sources.
+ *
+ * Only text is compressed (HTML, JSON, CSS, JavaScript, ...), images and archives
+ * are compressed already. Bodies below MIN_BYTES are sent as they are, they would
+ * hardly shrink and gzip alone adds 18 bytes of header and trailer.
+ */
+public final class Compression {
+  public final static String GZIP = "gzip";
+  public final static String DEFLATE = "deflate";
+  public final static int MIN_BYTES = 256;
+
+  // gzip member header: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+  private final static byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private Compression() {
+  }
+
+  /**
+   * @param acceptEncoding value of the Accept-Encoding header, may be null
+   * @return GZIP or DEFLATE if the client takes it (gzip preferred), null otherwise.
+   *     A coding named explicitly wins over "*", so "gzip;q=0, *" gets deflate.
+   */
+  public static String negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    // null while the coding is not mentioned
+    Boolean gzip = null;
+    Boolean deflate = null;
+    Boolean any = null;
+    for (String part : acceptEncoding.split(",")) {
+      String[] params = part.split(";");
+      String coding = params[0].trim().toLowerCase();
+      boolean accepted = true;
+      for (int i = 1; i < params.length; i++) {
+        String param = params[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            accepted = Double.parseDouble(param.substring(2)) > 0;
+          } catch (NumberFormatException e) {
+            accepted = false;
+          }
+        }
+      }
+      if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+        gzip = accepted || Boolean.TRUE.equals(gzip);
+      } else if (coding.equals(DEFLATE)) {
+        deflate = accepted || Boolean.TRUE.equals(deflate);
+      } else if (coding.equals("*")) {
+        any = accepted || Boolean.TRUE.equals(any);
+      }
+    }
+    boolean anyAccepted = Boolean.TRUE.equals(any);
+    if (gzip != null ? gzip : anyAccepted) {
+      return GZIP;
+    }
+    if (deflate != null ? deflate : anyAccepted) {
+      return DEFLATE;
+    }
+    return null;
+  }
+
+  /**
+   * @param contentType value of the Content-Type header
+   * @return true for text types that are worth compressing
+   */
+  public static boolean isCompressible(String contentType) {
+    String type = contentType.toLowerCase();
+    return type.startsWith("text/")
+        || type.startsWith("application/json")
+        || type.startsWith("application/javascript")
+        || type.startsWith("application/xml")
+        || type.startsWith("image/svg+xml");
+  }
+
+  /**
+   * @param encoding GZIP or DEFLATE (zlib format, which is what HTTP calls deflate)
+   * @param level Deflater level, e.g. Deflater.BEST_COMPRESSION for content compressed once and kept
+   * @return the compressed bytes
+   */
+  public static byte[] compress(byte[] data, int offset, int length, String encoding, int level) {
+    boolean gzip = encoding.equals(GZIP);
+    // gzip is raw deflate data in its own header and trailer
+    Deflater deflater = new Deflater(level, gzip);
+    try {
+      deflater.setInput(data, offset, length);
+      deflater.finish();
+
+      byte[] out = new byte[Math.max(64, length / 3)];
+      int pos = 0;
+      if (gzip) {
+        System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+        pos = GZIP_HEADER.length;
+      }
+      while (!deflater.finished()) {
+        if (pos == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        pos += deflater.deflate(out, pos, out.length - pos);
+      }
+
+      if (gzip) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        if (pos + 8 > out.length) {
+          out = Arrays.copyOf(out, pos + 8);
+        }
+        pos = writeIntLE(out, pos, (int) crc.getValue());
+        pos = writeIntLE(out, pos, length);
+      }
+      return Arrays.copyOf(out, pos);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static int writeIntLE(byte[] out, int pos, int value) {
+    out[pos] = (byte) value;
+    out[pos + 1] = (byte) (value >>> 8);
+    out[pos + 2] = (byte) (value >>> 16);
+    out[pos + 3] = (byte) (value >>> 24);
+    return pos + 4;
+  }
+}
@@ -0,0 +1,120 @@
+package funHttpServer;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Non-blocking access to the GitHub REST API for the "/github" endpoint.
+ *
+ * Requests go out through java.net.http.HttpClient, no thread waits for the answer.
+ * Answers are kept for a while (time to live) so the same query does not hit
+ * GitHub again, and if several clients ask for the same query at the same time
+ * only one request goes upstream and all of them get its answer.
+ *
+ * The base URL can be changed (system property github.url) so a local stub
+ * can stand in for GitHub when testing.
+ */
+class GithubProxy {
+  // at most this many different queries are remembered
+  private final static int MAX_CACHED = 256;
+
+  private final static class Cached {
+    final String body;
+    final long expires;
+
+    Cached(String body, long expires) {
+      this.body = body;
+      this.expires = expires;
+    }
+  }
+
+  private final HttpClient client = HttpClient.newBuilder()
+      .connectTimeout(Duration.ofSeconds(5))
+      .followRedirects(HttpClient.Redirect.NORMAL)
+      .build();
+
+  private final String baseUrl;
+  private final long ttlMillis;
+  private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * @param baseUrl upstream to send the queries to, e.g. https://api.github.com/
+   * @param ttlMillis how long an answer is reused
+   */
+  public GithubProxy(String baseUrl, long ttlMillis) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Fetches baseUrl + query, from the cache if we asked for it recently
+   * @param query path of the REST call, e.g. users/amehlhase316/repos
+   * @return future with the body, fails if GitHub is unreachable or does not answer with 200,
+   * and with an IllegalArgumentException if the query does not make a valid URL
+   */
+  public CompletableFuture<String> fetch(String query) {
+    Cached cached = cache.get(query);
+    if (cached != null && cached.expires > System.currentTimeMillis()) {
+      return CompletableFuture.completedFuture(cached.body);
+    }
+
+    // checked before anybody can wait for it, e.g. a space in the query is no valid URL
+    HttpRequest request;
+    try {
+      request = HttpRequest.newBuilder(URI.create(baseUrl + query))
+          .timeout(Duration.ofSeconds(20))
+          .header("Accept", "application/vnd.github+json")
+          .GET()
+          .build();
+    } catch (IllegalArgumentException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    // the first caller starts the request, everybody else arriving before it finishes shares it
+    CompletableFuture<String> created = new CompletableFuture<>();
+    CompletableFuture<String> running = inFlight.putIfAbsent(query, created);
+    if (running != null) {
+      return running;
+    }
+    // however it ends, the next caller starts a new request
+    created.whenComplete((body, error) -> inFlight.remove(query, created));
+
+    CompletableFuture<HttpResponse<String>> sent;
+    try {
+      sent = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    } catch (RuntimeException e) {
+      created.completeExceptionally(e);
+      return created;
+    }
+    sent.whenComplete((response, error) -> {
+      if (error != null) {
+        created.completeExceptionally(error);
+      } else if (response.statusCode() != 200) {
+        created.completeExceptionally(new IllegalStateException(
+            "GitHub answered with status " + response.statusCode()));
+      } else {
+        remember(query, response.body());
+        created.complete(response.body());
+      }
+    });
+    return created;
+  }
+
+  private void remember(String query, String body) {
+    long now = System.currentTimeMillis();
+    if (cache.size() >= MAX_CACHED) {
+      cache.values().removeIf(cached -> cached.expires <= now);
+      if (cache.size() >= MAX_CACHED) {
+        cache.clear();
+      }
+    }
+    cache.put(query, new Cached(body, now + ttlMillis));
+  }
+}
@@ -0,0 +1,11 @@
+package funHttpServer;
+
+import java.io.IOException;
+
+/**
+ * One endpoint of the WebServer. A handler gets the parsed request and writes the
+ * complete response (status line, headers, empty line, body) into the response.
+ */
+interface Handler {
+  void handle(HttpRequest request, HttpResponse response) throws IOException;
+}
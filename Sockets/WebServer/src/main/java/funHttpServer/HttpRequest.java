@@ -0,0 +1,90 @@
+package funHttpServer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The parts of an HTTP request the endpoints care about.
+ * For "GET /multiply?num1=3&num2=4 HTTP/1.1" the path is "multiply"
+ * (without the leading /) and the query is "num1=3&num2=4".
+ *
+ * Requests are created by the RequestParser. The header is kept as the raw bytes
+ * it arrived in together with the offsets of every name and value, a String is
+ * only made for a header value an endpoint actually asks for.
+ */
+class HttpRequest {
+  private final String method;
+  private final String path;
+  private final String query;
+  private final boolean keepAlive;
+  private final byte[] body;
+  private Query parameters;
+
+  // raw header bytes and for every header: name start, name end, value start, value end
+  private final byte[] head;
+  private final int[] headers;
+  private final int headerCount;
+
+  HttpRequest(String method, String path, String query, boolean keepAlive,
+              byte[] head, int[] headers, int headerCount, byte[] body) {
+    this.method = method;
+    this.path = path;
+    this.query = query;
+    this.keepAlive = keepAlive;
+    this.head = head;
+    this.headers = headers;
+    this.headerCount = headerCount;
+    this.body = body;
+  }
+
+  /**
+   * @param name header name, any case
+   * @return the header value or null if the client did not send it
+   */
+  public String getHeader(String name) {
+    for (int i = 0; i < headerCount; i++) {
+      int nameStart = headers[i * 4];
+      int nameEnd = headers[i * 4 + 1];
+      if (RequestParser.equalsIgnoreCase(head, nameStart, nameEnd, name)) {
+        int valueStart = headers[i * 4 + 2];
+        return new String(head, valueStart, headers[i * 4 + 3] - valueStart, StandardCharsets.ISO_8859_1);
+      }
+    }
+    return null;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * @return the query parameters, decoded only when asked for
+   */
+  public Query getParameters() {
+    if (parameters == null) {
+      parameters = new Query(query);
+    }
+    return parameters;
+  }
+
+  /**
+   * @return the request body (POST), empty if there is none
+   */
+  public byte[] getBody() {
+    return body;
+  }
+
+  /**
+   * @return true if the client wants to keep the connection open after the response
+   */
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+}
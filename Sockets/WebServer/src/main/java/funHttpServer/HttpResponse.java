@@ -0,0 +1,291 @@
+package funHttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import compression.Compression;
+
+/**
+ * The response an endpoint writes: start() with the status and content type, optionally
+ * some header() lines, then the body with append(). Content-Length and the line endings
+ * are taken care of here.
+ *
+ * Status line and Content-Type come pre-encoded from a ResponseHead, body text is
+ * encoded as UTF-8 straight into a pooled buffer. Head and body stay in two buffers
+ * the front-end writes with a single gathering write, so the body is never copied
+ * once it is encoded.
+ *
+ * Text bodies are compressed if the client accepts it, see compress(). Cached
+ * files are appended with append(Entry) so their compressed variant is reused.
+ *
+ * An endpoint can instead attach part of a file as the body, which the front-end sends
+ * straight from the file to the socket (FileChannel.transferTo) without ever copying
+ * it onto the heap.
+ *
+ * An endpoint that has to wait for something (e.g. another server) does not block
+ * its thread: it hands the future to completeLater() and writes the response when
+ * the future is done. The response is sent once that completion finishes.
+ */
+class HttpResponse {
+  private final static byte[] CRLF = {'\r', '\n'};
+  private final static byte[] COLON = {':', ' '};
+  private final static byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+
+  private ResponseBuffer head;
+  private ResponseBuffer body;
+  private int status = 500;
+  private boolean hasBody = true;
+  private boolean compressible = false;
+  private boolean finished = false;
+  // encoding the client accepts (null for none) and whether the body already is encoded
+  private String encoding;
+  private boolean encoded = false;
+  private File file;
+  private long fileOffset;
+  private long fileLength;
+  private CompletableFuture<?> completion;
+
+  /**
+   * Starts the response, everything written before is dropped so an endpoint
+   * can start over with an error
+   * @param status status line and content type
+   */
+  public HttpResponse start(ResponseHead status) {
+    if (head == null) {
+      head = ResponseBuffer.acquire();
+      body = ResponseBuffer.acquire();
+    }
+    head.clear();
+    body.clear();
+    head.append(status.bytes);
+    this.status = status.status;
+    hasBody = status.hasBody;
+    compressible = status.compressible;
+    encoded = false;
+    finished = false;
+    file = null;
+    return this;
+  }
+
+  /**
+   * Adds a header line, name and value have to be ASCII
+   */
+  public HttpResponse header(String name, String value) {
+    head.appendAscii(name);
+    head.append(COLON);
+    head.appendAscii(value);
+    head.append(CRLF);
+    return this;
+  }
+
+  public HttpResponse append(CharSequence text) {
+    body.appendUtf8(text);
+    return this;
+  }
+
+  public HttpResponse append(Object text) {
+    body.appendUtf8(String.valueOf(text));
+    return this;
+  }
+
+  public HttpResponse append(long number) {
+    body.appendDecimal(number);
+    return this;
+  }
+
+  /**
+   * Appends bytes that are already encoded, e.g. a cached page
+   */
+  public HttpResponse append(byte[] bytes) {
+    body.append(bytes);
+    return this;
+  }
+
+  /**
+   * Appends the content of a cached text file, the compressed variant if the client
+   * accepts one. Has to be the whole body.
+   */
+  public HttpResponse append(StaticFileCache.Entry entry) {
+    String variant = encodingFor(entry);
+    if (variant == null) {
+      body.append(entry.bytes);
+    } else {
+      body.append(entry.encoded(variant));
+      header("Content-Encoding", variant);
+      encoded = true;
+    }
+    return this;
+  }
+
+  /**
+   * @param encoding the encoding negotiated with the client, null to send everything as it is
+   */
+  public void acceptEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
+  /**
+   * @return the encoding append(entry) uses for the entry, null if it is sent as it is.
+   *     Needed before the body is written, e.g. for the ETag of the variant.
+   */
+  public String encodingFor(StaticFileCache.Entry entry) {
+    return entry.bytes.length >= Compression.MIN_BYTES ? encoding : null;
+  }
+
+  /**
+   * Compresses a finished text body if the client accepts it. Also tells caches that
+   * the body depends on Accept-Encoding. Called once the endpoint is done writing.
+   */
+  public void compress() {
+    if (head == null || !hasBody || !compressible || file != null) {
+      return;
+    }
+    header("Vary", "Accept-Encoding");
+    if (encoded || encoding == null || body.length() < Compression.MIN_BYTES) {
+      return;
+    }
+    byte[] compressed = Compression.compress(body.array(), 0, body.length(), encoding, Deflater.DEFAULT_COMPRESSION);
+    body.clear();
+    body.append(compressed);
+    header("Content-Encoding", encoding);
+    encoded = true;
+  }
+
+  /**
+   * Uses a region of a file as the body, the Content-Length is set to the length of the region
+   * @param file file to send
+   * @param offset first byte to send
+   * @param length number of bytes to send
+   */
+  public void sendFile(File file, long offset, long length) {
+    this.file = file;
+    this.fileOffset = offset;
+    this.fileLength = length;
+  }
+
+  /**
+   * Marks the response as not finished yet
+   * @param completion completes after the endpoint wrote the whole response
+   */
+  public void completeLater(CompletableFuture<?> completion) {
+    this.completion = completion;
+  }
+
+  /**
+   * @return a future completing when the response is written, already completed for plain responses
+   */
+  public CompletableFuture<?> whenComplete() {
+    return completion == null ? CompletableFuture.completedFuture(null) : completion;
+  }
+
+  /**
+   * @return status code of the response, 500 if the endpoint never started it
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getFileOffset() {
+    return fileOffset;
+  }
+
+  public long getFileLength() {
+    return fileLength;
+  }
+
+  /**
+   * @return head and body (empty if a file is attached) ready for a gathering write,
+   *     valid until release()
+   */
+  public ByteBuffer[] toBuffers() {
+    finish();
+    return new ByteBuffer[] {
+        ByteBuffer.wrap(head.array(), 0, head.length()),
+        ByteBuffer.wrap(body.array(), 0, body.length())
+    };
+  }
+
+  /**
+   * @return status line and headers and, unless a file is attached, the body
+   */
+  public byte[] toBytes() {
+    finish();
+    byte[] response = new byte[head.length() + body.length()];
+    System.arraycopy(head.array(), 0, response, 0, head.length());
+    System.arraycopy(body.array(), 0, response, head.length(), body.length());
+    return response;
+  }
+
+  /**
+   * Like toBytes() but with the file region read into memory, for callers that
+   * can only deal with a plain byte array
+   */
+  public byte[] toBytesWithFile() throws IOException {
+    try {
+      whenComplete().get(30, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      throw new IOException("Response did not complete", e);
+    }
+    byte[] head = toBytes();
+    if (file == null) {
+      return head;
+    }
+    if (fileLength > Integer.MAX_VALUE - head.length) {
+      throw new IOException("File too large to send from memory: " + file);
+    }
+    byte[] response = new byte[head.length + (int) fileLength];
+    System.arraycopy(head, 0, response, 0, head.length);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(fileOffset);
+      raf.readFully(response, head.length, (int) fileLength);
+    }
+    return response;
+  }
+
+  /**
+   * Gives the buffers back to the pool once the response has been sent,
+   * the response must not be used afterwards
+   */
+  public void release() {
+    if (head != null) {
+      head.release();
+      body.release();
+      head = null;
+      body = null;
+    }
+  }
+
+  /**
+   * Ends the header with the Content-Length and the empty line
+   */
+  private void finish() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    if (head == null) {
+      // the endpoint never started the response, that is a bug on our side
+      start(ResponseHead.SERVER_ERROR);
+    }
+    if (hasBody) {
+      // a 304 has no body, its Content-Length would describe the page the client already has
+      head.append(CONTENT_LENGTH);
+      head.appendDecimal(file == null ? body.length() : fileLength);
+      head.append(CRLF);
+    }
+    head.append(CRLF);
+    if (file != null) {
+      body.clear();
+    }
+  }
+}
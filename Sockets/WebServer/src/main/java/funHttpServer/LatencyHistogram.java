@@ -0,0 +1,89 @@
+package funHttpServer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in the spirit of HdrHistogram, but tiny: microseconds are
+ * counted in buckets that are linear below 16 and then split every power of two
+ * into 8 sub-buckets, so any value is off by at most 12.5%.
+ *
+ * Recording is one atomic increment of the bucket plus two LongAdders, no locks,
+ * so many workers can record into the same histogram at once. Percentiles are read
+ * from a snapshot of the buckets, which may be a few records behind; that is fine
+ * for monitoring.
+ */
+class LatencyHistogram {
+  private final static int SUB_BUCKET_BITS = 3;
+  private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values up to 2^40 micros (about 12 days), larger ones land in the last bucket
+  private final static int BUCKETS = bucketOf(1L << 40) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumMicros = new LongAdder();
+
+  /**
+   * @param micros latency of one request in microseconds
+   */
+  public void record(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    counts.incrementAndGet(Math.min(bucketOf(micros), BUCKETS - 1));
+    count.increment();
+    sumMicros.add(micros);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSumMicros() {
+    return sumMicros.sum();
+  }
+
+  /**
+   * @param quantile between 0 and 1, e.g. 0.99
+   * @return upper bound in microseconds of the bucket the quantile falls in, 0 without records
+   */
+  public long percentile(double quantile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(BUCKETS - 1);
+  }
+
+  private static int bucketOf(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = bucket % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (sub + 1) * width - 1;
+  }
+}
@@ -0,0 +1,209 @@
+package funHttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logging for the server threads.
+ *
+ * System.out.println takes the lock of System.out and writes to the console
+ * right away, so every thread that logs waits for the console and for all other
+ * threads logging. Here a log call only puts the message into a ring buffer
+ * (a compare-and-set, no lock) and returns, a background thread formats the
+ * messages and writes them in batches. When the buffer is full the message is
+ * dropped and counted instead of making the caller wait; the number of dropped
+ * messages shows up in the log.
+ *
+ * Formatting (String.format) happens on the background thread too, so pass
+ * values that do not change afterwards. A Throwable as last argument is
+ * printed with its stack trace.
+ *
+ * Settings (system properties):
+ * log.level  - DEBUG, INFO (default), WARN or ERROR, anything else is INFO
+ * log.sample - sampled() is true for 1 in this many calls (default 1 = always),
+ *              for messages that are written once per request
+ *
+ * The same class is copied into every server that logs, only the package
+ * differs: Sockets/WebServer (funHttpServer and httpServer),
+ * Sockets/SimpleInterop/Java, activity2 7 (server) and
+ * Network/JsonRPCviaTCPStudent (server). Change all of them together.
+ */
+final class Log {
+  enum Level { DEBUG, INFO, WARN, ERROR }
+
+  private final static int CAPACITY = 8192; // power of two
+  private final static long IDLE_PARK_NANOS = 1000000;
+  private final static Level LEVEL = level(System.getProperty("log.level", "INFO"));
+  private final static int SAMPLE = Math.max(1, Integer.getInteger("log.sample", 1));
+  private final static DateTimeFormatter TIME =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+  private final static AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(CAPACITY);
+  // next slot to claim by a logging thread and next slot to take by the flusher
+  private final static AtomicLong tail = new AtomicLong();
+  private final static AtomicLong head = new AtomicLong();
+  private final static LongAdder dropped = new LongAdder();
+  private static volatile boolean closing;
+  private final static Thread flusher;
+
+  static {
+    flusher = new Thread(Log::flush, "log-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      closing = true;
+      LockSupport.unpark(flusher);
+      try {
+        flusher.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+  }
+
+  private Log() {
+  }
+
+  /**
+   * @return the level with this name, INFO for a name that is no level
+   */
+  private static Level level(String name) {
+    try {
+      return Level.valueOf(name.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown log.level " + name + ", logging at INFO");
+      return Level.INFO;
+    }
+  }
+
+  static boolean isEnabled(Level level) {
+    return level.compareTo(LEVEL) >= 0;
+  }
+
+  /**
+   * @return true for 1 in log.sample calls, guard per request messages with it
+   */
+  static boolean sampled() {
+    return SAMPLE == 1 || ThreadLocalRandom.current().nextInt(SAMPLE) == 0;
+  }
+
+  static void debug(String format, Object... args) {
+    log(Level.DEBUG, format, args);
+  }
+
+  static void info(String format, Object... args) {
+    log(Level.INFO, format, args);
+  }
+
+  static void warn(String format, Object... args) {
+    log(Level.WARN, format, args);
+  }
+
+  static void error(String format, Object... args) {
+    log(Level.ERROR, format, args);
+  }
+
+  static void log(Level level, String format, Object... args) {
+    if (!isEnabled(level)) {
+      return;
+    }
+    Entry entry = new Entry(level, System.currentTimeMillis(),
+        Thread.currentThread().getName(), format, args);
+    while (true) {
+      long slot = tail.get();
+      if (slot - head.get() >= CAPACITY) {
+        dropped.increment();
+        return;
+      }
+      if (tail.compareAndSet(slot, slot + 1)) {
+        ring.set((int) slot & (CAPACITY - 1), entry);
+        return;
+      }
+    }
+  }
+
+  /**
+   * The flusher thread, the only one taking entries out of the ring
+   */
+  private static void flush() {
+    PrintStream out = new PrintStream(new BufferedOutputStream(
+        new FileOutputStream(FileDescriptor.out), 64 * 1024), false, StandardCharsets.UTF_8);
+    StringBuilder line = new StringBuilder(256);
+    while (true) {
+      long next = head.get();
+      int written = 0;
+      // at most one ring full per batch, so drops are reported and the output is flushed regularly
+      while (written < CAPACITY && next < tail.get()) {
+        int index = (int) next & (CAPACITY - 1);
+        Entry entry = ring.get(index);
+        if (entry == null) {
+          break; // slot claimed, the message is not in yet
+        }
+        ring.set(index, null);
+        head.set(++next);
+        write(out, line, entry);
+        written++;
+      }
+      long lost = dropped.sumThenReset();
+      if (lost > 0) {
+        out.println("[log] " + lost + " messages dropped, the log could not keep up");
+      }
+      if (written > 0 || lost > 0) {
+        out.flush();
+      } else if (closing) {
+        return;
+      } else {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+  }
+
+  private static void write(PrintStream out, StringBuilder line, Entry entry) {
+    line.setLength(0);
+    TIME.formatTo(Instant.ofEpochMilli(entry.millis), line);
+    line.append(' ').append(entry.level.name());
+    for (int i = entry.level.name().length(); i < 5; i++) {
+      line.append(' ');
+    }
+    line.append(" [").append(entry.thread).append("] ");
+    Object[] args = entry.args;
+    Throwable thrown = args.length > 0 && args[args.length - 1] instanceof Throwable
+        ? (Throwable) args[args.length - 1] : null;
+    try {
+      line.append(args.length == 0 ? entry.format : String.format(entry.format, args));
+    } catch (RuntimeException e) {
+      line.append(entry.format); // bad format string, better the raw message than nothing
+    }
+    out.println(line);
+    if (thrown != null) {
+      thrown.printStackTrace(out);
+    }
+  }
+
+  private final static class Entry {
+    final Level level;
+    final long millis;
+    final String thread;
+    final String format;
+    final Object[] args;
+
+    Entry(Level level, long millis, String thread, String format, Object[] args) {
+      this.level = level;
+      this.millis = millis;
+      this.thread = thread;
+      this.format = format;
+      this.args = args;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package funHttpServer;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the fun WebServer, shown on "/metrics" in the Prometheus text format.
+ *
+ * Per route: number of requests and a latency histogram (p50, p99, p999). For the
+ * whole server: responses per status code, open connections and bytes read and written.
+ *
+ * Everything is recorded with atomics and LongAdders, a request never waits for a
+ * lock because of the metrics. Routes are limited to the registered ones (plus
+ * "unknown") so a client cannot blow up the number of series with random paths.
+ */
+class Metrics {
+  private final static ResponseHead OK_PROMETHEUS = ResponseHead.of("200 OK", "text/plain; version=0.0.4; charset=utf-8");
+  private final static double[] QUANTILES = {0.5, 0.99, 0.999};
+
+  private final Map<String, LatencyHistogram> routes = new ConcurrentHashMap<>();
+  private final AtomicLongArray statuses = new AtomicLongArray(600);
+  private final LongAdder openConnections = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+
+  /**
+   * Records a request that has been answered
+   * @param route route name as returned by Router.name()
+   * @param status status code of the response
+   * @param nanos time from the request being handed to the endpoint until the response was ready
+   */
+  public void request(String route, int status, long nanos) {
+    routes.computeIfAbsent(route, name -> new LatencyHistogram()).record(nanos / 1000);
+    status(status);
+  }
+
+  /**
+   * Records a response that was sent without going through a route, e.g. a 503
+   */
+  public void status(int status) {
+    if (status >= 100 && status < statuses.length()) {
+      statuses.incrementAndGet(status);
+    }
+  }
+
+  public void connectionOpened() {
+    openConnections.increment();
+  }
+
+  public void connectionClosed() {
+    openConnections.decrement();
+  }
+
+  public void bytesRead(long count) {
+    bytesIn.add(count);
+  }
+
+  public void bytesWritten(long count) {
+    bytesOut.add(count);
+  }
+
+  /**
+   * "/metrics" endpoint
+   */
+  public void handle(HttpRequest request, HttpResponse response) {
+    response.start(OK_PROMETHEUS);
+
+    // sorted so the output is stable between scrapes
+    Map<String, LatencyHistogram> sorted = new TreeMap<>(routes);
+
+    response.append("# HELP funhttp_requests_total Requests answered per route.\n");
+    response.append("# TYPE funhttp_requests_total counter\n");
+    for (Map.Entry<String, LatencyHistogram> route : sorted.entrySet()) {
+      response.append("funhttp_requests_total{route=\"").append(route.getKey()).append("\"} ")
+          .append(route.getValue().getCount()).append("\n");
+    }
+
+    response.append("# HELP funhttp_request_duration_seconds Time until the response was ready, per route.\n");
+    response.append("# TYPE funhttp_request_duration_seconds summary\n");
+    for (Map.Entry<String, LatencyHistogram> route : sorted.entrySet()) {
+      LatencyHistogram histogram = route.getValue();
+      for (double quantile : QUANTILES) {
+        response.append("funhttp_request_duration_seconds{route=\"").append(route.getKey())
+            .append("\",quantile=\"").append(Double.toString(quantile)).append("\"} ")
+            .append(seconds(histogram.percentile(quantile))).append("\n");
+      }
+      response.append("funhttp_request_duration_seconds_sum{route=\"").append(route.getKey()).append("\"} ")
+          .append(seconds(histogram.getSumMicros())).append("\n");
+      response.append("funhttp_request_duration_seconds_count{route=\"").append(route.getKey()).append("\"} ")
+          .append(histogram.getCount()).append("\n");
+    }
+
+    response.append("# HELP funhttp_responses_total Responses sent per status code.\n");
+    response.append("# TYPE funhttp_responses_total counter\n");
+    for (int status = 0; status < statuses.length(); status++) {
+      long count = statuses.get(status);
+      if (count > 0) {
+        response.append("funhttp_responses_total{status=\"").append(status).append("\"} ")
+            .append(count).append("\n");
+      }
+    }
+
+    response.append("# HELP funhttp_open_connections Client connections currently open.\n");
+    response.append("# TYPE funhttp_open_connections gauge\n");
+    response.append("funhttp_open_connections ").append(openConnections.sum()).append("\n");
+    response.append("# HELP funhttp_received_bytes_total Bytes read from clients.\n");
+    response.append("# TYPE funhttp_received_bytes_total counter\n");
+    response.append("funhttp_received_bytes_total ").append(bytesIn.sum()).append("\n");
+    response.append("# HELP funhttp_sent_bytes_total Bytes written to clients.\n");
+    response.append("# TYPE funhttp_sent_bytes_total counter\n");
+    response.append("funhttp_sent_bytes_total ").append(bytesOut.sum()).append("\n");
+  }
+
+  private static String seconds(long micros) {
+    return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+  }
+}
@@ -0,0 +1,113 @@
+package funHttpServer;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Read-only view on a query string like "num1=3&num2=4".
+ *
+ * Nothing is split or decoded up front. A lookup walks the raw string and compares
+ * the names in place, getInt() parses the digits right where they are, so asking for
+ * two numbers costs no allocation at all. Only get() makes a String, and it only
+ * URL-decodes when the value actually contains an escape.
+ *
+ * Parameter names are compared as they appear in the query, i.e. not decoded.
+ * A parameter without "=" (e.g. "flag" in "flag&a=1") has the empty value. If a
+ * parameter is given more than once the last value counts, like it did when the
+ * query was split into a map.
+ */
+class Query {
+  private final String query;
+
+  /**
+   * @param query raw query string without the leading ?
+   */
+  public Query(String query) {
+    this.query = query == null ? "" : query;
+  }
+
+  /**
+   * @param name parameter name
+   * @return true if the parameter is in the query, with or without a value
+   */
+  public boolean has(String name) {
+    return find(name) >= 0;
+  }
+
+  /**
+   * @param name parameter name
+   * @return the decoded value, "" if it has none or null if it is not in the query
+   */
+  public String get(String name) {
+    int start = find(name);
+    if (start < 0) {
+      return null;
+    }
+    int end = valueEnd(start);
+    for (int i = start; i < end; i++) {
+      char c = query.charAt(i);
+      if (c == '%' || c == '+') {
+        try {
+          return URLDecoder.decode(query.substring(start, end), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+          // broken escape, hand it out as it came
+          return query.substring(start, end);
+        }
+      }
+    }
+    return query.substring(start, end);
+  }
+
+  /**
+   * Parses the value as an int without making a String first
+   * @param name parameter name
+   * @return the value
+   * @throws IllegalArgumentException if the parameter is missing
+   * @throws NumberFormatException if the value is not an int
+   */
+  public int getInt(String name) {
+    int start = find(name);
+    if (start < 0) {
+      throw new IllegalArgumentException("Missing parameter " + name);
+    }
+    int end = valueEnd(start);
+    for (int i = start; i < end; i++) {
+      char c = query.charAt(i);
+      if (c == '%' || c == '+') {
+        // escaped value, rare enough to take the slow path
+        return Integer.parseInt(get(name));
+      }
+    }
+    return Integer.parseInt(query, start, end, 10);
+  }
+
+  /**
+   * @return index where the last value of the parameter starts or -1 if it is not in the query
+   */
+  private int find(String name) {
+    int length = query.length();
+    int found = -1;
+    int pos = 0;
+    while (pos <= length) {
+      int pairEnd = query.indexOf('&', pos);
+      if (pairEnd < 0) {
+        pairEnd = length;
+      }
+      int nameEnd = pos + name.length();
+      if (nameEnd <= pairEnd && query.startsWith(name, pos)) {
+        if (nameEnd == pairEnd) {
+          found = nameEnd; // no "=", empty value
+        } else if (query.charAt(nameEnd) == '=') {
+          found = nameEnd + 1;
+        }
+      }
+      pos = pairEnd + 1;
+    }
+    return found;
+  }
+
+  private int valueEnd(int start) {
+    int end = query.indexOf('&', start);
+    return end < 0 ? query.length() : end;
+  }
+}
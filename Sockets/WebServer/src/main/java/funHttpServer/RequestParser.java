@@ -0,0 +1,503 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental HTTP/1.x request parser working directly on bytes.
+ *
+ * Feed it whatever has arrived so far with parse(). It remembers how far it already
+ * looked, so header bytes and the chunks of a chunked body are only scanned once no
+ * matter in how many pieces they arrive.
+ * Nothing is allocated per header line: the header is copied once and the request
+ * only stores offsets into it. Method, path and query are the only Strings made.
+ *
+ * A header bigger than the limit is rejected as soon as that many bytes arrived
+ * without the empty line, a body bigger than the limit as soon as its length is known.
+ * The only transfer coding understood is a lone "chunked", anything else gets a 501.
+ *
+ * The same parser serves the NIO front-end (one parser and buffer per connection)
+ * and blocking callers (read(InputStream)).
+ */
+class RequestParser {
+  // results of parse()
+  final static int INCOMPLETE = 0;
+  final static int COMPLETE = 1;
+  final static int ERROR = 2;
+
+  private final static int MAX_HEADERS = 100;
+
+  private final int maxHeaderBytes;
+  private final int maxBodyBytes;
+
+  // progress in the current request, offsets relative to the start of the request
+  private int scanned = 0;
+  private int headerEnd = -1;
+  private long contentLength = 0;
+  private boolean chunked = false;
+  private long chunkedLength = 0;
+  // how far the chunks were walked: start of the next chunk (or trailer) line and
+  // the data of the complete chunks before it
+  private int chunkPos = -1;
+  private long chunkTotal = 0;
+  private boolean lastChunk = false;
+  private boolean keepAlive = true;
+  private int errorStatus = 0;
+  private HttpRequest request;
+
+  // offsets found while parsing the header, reused from request to request
+  private int[] headerOffsets = new int[16 * 4];
+  private int headerCount;
+  private int methodEnd;
+  private int targetStart;
+  private int targetEnd;
+
+  /**
+   * @param maxHeaderBytes largest request line plus headers accepted
+   * @param maxBodyBytes largest body accepted
+   */
+  public RequestParser(int maxHeaderBytes, int maxBodyBytes) {
+    this.maxHeaderBytes = maxHeaderBytes;
+    this.maxBodyBytes = maxBodyBytes;
+  }
+
+  /**
+   * Reads a single request from a blocking stream
+   * @param in stream to read from, nothing after the request is consumed from
+   *     the parser's point of view but it may have been read from the stream
+   * @return the request or null if the stream ended before a request was complete
+   * @throws IOException if reading fails or the request is malformed
+   */
+  public HttpRequest read(InputStream in) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(2048);
+    while (true) {
+      buffer.flip();
+      int result = parse(buffer);
+      buffer.compact();
+      if (result == COMPLETE) {
+        return getRequest();
+      }
+      if (result == ERROR) {
+        throw new IOException("Malformed request, status " + errorStatus);
+      }
+      if (!buffer.hasRemaining()) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+      }
+      int numRead = in.read(buffer.array(), buffer.position(), buffer.remaining());
+      if (numRead < 0) {
+        return null;
+      }
+      buffer.position(buffer.position() + numRead);
+    }
+  }
+
+  /**
+   * Looks at the bytes between position and limit of the buffer. If they start
+   * with a complete request it is consumed (position moves past it) and
+   * COMPLETE is returned, otherwise the buffer is left as it is.
+   * @param in buffer in read mode
+   * @return COMPLETE, INCOMPLETE (need more bytes) or ERROR (see getErrorStatus())
+   */
+  public int parse(ByteBuffer in) {
+    if (errorStatus != 0) {
+      return ERROR;
+    }
+    byte[] data = in.array();
+    int start = in.arrayOffset() + in.position();
+    int available = in.remaining();
+
+    if (headerEnd < 0) {
+      headerEnd = findHeaderEnd(data, start, available);
+      if (headerEnd < 0) {
+        if (available > maxHeaderBytes) {
+          return fail(431);
+        }
+        return INCOMPLETE;
+      }
+      if (headerEnd > maxHeaderBytes) {
+        return fail(431);
+      }
+      if (!parseHeader(data, start)) {
+        return ERROR;
+      }
+      scanned = headerEnd;
+    }
+
+    byte[] body;
+    int requestEnd;
+    if (chunked) {
+      requestEnd = chunkedEnd(data, start, available);
+      if (requestEnd < 0) {
+        return requestEnd == -1 ? INCOMPLETE : ERROR;
+      }
+      body = decodeChunks(data, start, requestEnd);
+    } else {
+      if (available < headerEnd + contentLength) {
+        return INCOMPLETE;
+      }
+      requestEnd = headerEnd + (int) contentLength;
+      body = new byte[(int) contentLength];
+      System.arraycopy(data, start + headerEnd, body, 0, body.length);
+    }
+
+    request = buildRequest(data, start, body);
+    in.position(in.position() + requestEnd);
+    reset();
+    return COMPLETE;
+  }
+
+  /**
+   * @return the request completed by the last parse() call
+   */
+  public HttpRequest getRequest() {
+    return request;
+  }
+
+  /**
+   * @return status code to answer a failed request with (400, 413, 431 or 501)
+   */
+  public int getErrorStatus() {
+    return errorStatus;
+  }
+
+  private void reset() {
+    scanned = 0;
+    headerEnd = -1;
+    contentLength = 0;
+    chunked = false;
+    chunkedLength = 0;
+    chunkPos = -1;
+    chunkTotal = 0;
+    lastChunk = false;
+    keepAlive = true;
+    headerCount = 0;
+  }
+
+  private int fail(int status) {
+    errorStatus = status;
+    return ERROR;
+  }
+
+  /**
+   * @return offset just after the empty line ending the header, -1 if not there yet
+   */
+  private int findHeaderEnd(byte[] data, int start, int available) {
+    // step back a little in case the end marker was split between two reads
+    for (int i = Math.max(0, scanned - 3); i < available; i++) {
+      if (data[start + i] != '\n') {
+        continue;
+      }
+      if (i + 1 < available && data[start + i + 1] == '\n') {
+        return i + 2;
+      }
+      if (i + 2 < available && data[start + i + 1] == '\r' && data[start + i + 2] == '\n') {
+        return i + 3;
+      }
+    }
+    scanned = available;
+    return -1;
+  }
+
+  /**
+   * Finds request line and header offsets and the few headers the parser needs itself
+   */
+  private boolean parseHeader(byte[] data, int start) {
+    int lineEnd = lineEnd(data, start, 0, headerEnd);
+
+    // request line: METHOD SP TARGET SP VERSION
+    methodEnd = indexOf(data, start, 0, lineEnd, (byte) ' ');
+    if (methodEnd <= 0) {
+      fail(400);
+      return false;
+    }
+    targetStart = methodEnd + 1;
+    targetEnd = indexOf(data, start, targetStart, lineEnd, (byte) ' ');
+    if (targetEnd < 0 || data[start + targetStart] != '/') {
+      fail(400);
+      return false;
+    }
+    // HTTP/1.0 closes after every response unless asked otherwise
+    keepAlive = !equalsIgnoreCase(data, start + targetEnd + 1, start + trimEnd(data, start, lineEnd), "HTTP/1.0");
+
+    int pos = lineEnd + 1;
+    while (pos < headerEnd) {
+      lineEnd = lineEnd(data, start, pos, headerEnd);
+      if (lineEnd == pos || (lineEnd == pos + 1 && data[start + pos] == '\r')) {
+        break; // the empty line
+      }
+      int colon = indexOf(data, start, pos, lineEnd, (byte) ':');
+      if (colon <= pos) {
+        fail(400);
+        return false;
+      }
+      int valueStart = colon + 1;
+      while (valueStart < lineEnd && (data[start + valueStart] == ' ' || data[start + valueStart] == '\t')) {
+        valueStart++;
+      }
+      int valueEnd = trimEnd(data, start, lineEnd);
+      if (valueEnd < valueStart) {
+        valueEnd = valueStart;
+      }
+      if (!addHeader(pos, colon, valueStart, valueEnd)) {
+        return false;
+      }
+
+      if (equalsIgnoreCase(data, start + pos, start + colon, "Content-Length")) {
+        contentLength = parseDecimal(data, start + valueStart, start + valueEnd);
+        if (contentLength < 0) {
+          fail(400);
+          return false;
+        }
+        if (contentLength > maxBodyBytes) {
+          fail(413);
+          return false;
+        }
+      } else if (equalsIgnoreCase(data, start + pos, start + colon, "Transfer-Encoding")) {
+        // e.g. "gzip, chunked" would need a decoder we do not have, a second
+        // Transfer-Encoding header adds to the list as well
+        if (chunked || !equalsIgnoreCase(data, start + valueStart, start + valueEnd, "chunked")) {
+          fail(501);
+          return false;
+        }
+        chunked = true;
+      } else if (equalsIgnoreCase(data, start + pos, start + colon, "Connection")) {
+        if (equalsIgnoreCase(data, start + valueStart, start + valueEnd, "close")) {
+          keepAlive = false;
+        } else if (equalsIgnoreCase(data, start + valueStart, start + valueEnd, "keep-alive")) {
+          keepAlive = true;
+        }
+      }
+      pos = lineEnd + 1;
+    }
+    return true;
+  }
+
+  private boolean addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+    if (headerCount == MAX_HEADERS) {
+      fail(431);
+      return false;
+    }
+    if (headerOffsets.length < (headerCount + 1) * 4) {
+      int[] bigger = new int[headerOffsets.length * 2];
+      System.arraycopy(headerOffsets, 0, bigger, 0, headerOffsets.length);
+      headerOffsets = bigger;
+    }
+    int i = headerCount * 4;
+    headerOffsets[i] = nameStart;
+    headerOffsets[i + 1] = nameEnd;
+    headerOffsets[i + 2] = valueStart;
+    headerOffsets[i + 3] = valueEnd;
+    headerCount++;
+    return true;
+  }
+
+  private HttpRequest buildRequest(byte[] data, int start, byte[] body) {
+    // the header has to survive the buffer being reused, so it is copied once
+    byte[] head = new byte[headerEnd];
+    System.arraycopy(data, start, head, 0, headerEnd);
+    int[] offsets = new int[headerCount * 4];
+    System.arraycopy(headerOffsets, 0, offsets, 0, offsets.length);
+
+    String method = method(head, methodEnd);
+    // skip the leading / of the target
+    int pathStart = targetStart + 1;
+    int questionMark = indexOf(head, 0, pathStart, targetEnd, (byte) '?');
+    String path;
+    String query;
+    if (questionMark < 0) {
+      path = new String(head, pathStart, targetEnd - pathStart, StandardCharsets.ISO_8859_1);
+      query = "";
+    } else {
+      path = new String(head, pathStart, questionMark - pathStart, StandardCharsets.ISO_8859_1);
+      query = new String(head, questionMark + 1, targetEnd - questionMark - 1, StandardCharsets.ISO_8859_1);
+    }
+    return new HttpRequest(method, path, query, keepAlive, head, offsets, headerCount, body);
+  }
+
+  /**
+   * Common methods map to constants, so no String is made for them
+   */
+  private static String method(byte[] head, int end) {
+    if (equalsIgnoreCase(head, 0, end, "GET") && head[0] == 'G') {
+      return "GET";
+    }
+    if (equalsIgnoreCase(head, 0, end, "POST") && head[0] == 'P') {
+      return "POST";
+    }
+    return new String(head, 0, end, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Walks the chunks of a chunked body: "size CRLF data CRLF" until a zero size
+   * chunk followed by the (optional) trailers and an empty line. Continues where
+   * the last call stopped, complete chunks are not looked at again.
+   * @return end of the request, -1 if incomplete, -2 on error
+   */
+  private int chunkedEnd(byte[] data, int start, int available) {
+    if (chunkPos < 0) {
+      chunkPos = headerEnd;
+    }
+    while (!lastChunk) {
+      int lineEnd = indexOf(data, start, chunkPos, available, (byte) '\n');
+      if (lineEnd < 0) {
+        return incompleteLine(chunkPos, available);
+      }
+      long size = parseHex(data, start + chunkPos, start + lineEnd);
+      if (size < 0) {
+        fail(400);
+        return -2;
+      }
+      if (chunkTotal + size > maxBodyBytes) {
+        fail(413);
+        return -2;
+      }
+      if (size == 0) {
+        lastChunk = true;
+        chunkPos = lineEnd + 1;
+        break;
+      }
+      int dataStart = lineEnd + 1;
+      if (dataStart + size > available) {
+        return -1;
+      }
+      int dataEnd = indexOf(data, start, dataStart + (int) size, available, (byte) '\n');
+      if (dataEnd < 0) {
+        return incompleteLine(dataStart + (int) size, available);
+      }
+      chunkTotal += size;
+      chunkPos = dataEnd + 1;
+    }
+    chunkedLength = chunkTotal;
+    // skip trailers up to the empty line
+    while (true) {
+      int trailerEnd = indexOf(data, start, chunkPos, available, (byte) '\n');
+      if (trailerEnd < 0) {
+        return incompleteLine(chunkPos, available);
+      }
+      boolean empty = trailerEnd == chunkPos || (trailerEnd == chunkPos + 1 && data[start + chunkPos] == '\r');
+      chunkPos = trailerEnd + 1;
+      if (empty) {
+        return chunkPos;
+      }
+    }
+  }
+
+  /**
+   * A line of a chunked body that did not end yet is scanned again with the next
+   * bytes, so it may not get longer than a header
+   * @return -1 to wait for more bytes, -2 if the line is too long
+   */
+  private int incompleteLine(int lineStart, int available) {
+    if (available - lineStart > maxHeaderBytes) {
+      fail(400);
+      return -2;
+    }
+    return -1;
+  }
+
+  /**
+   * Copies the data of all chunks into one array, only called once chunkedEnd() found the end
+   */
+  private byte[] decodeChunks(byte[] data, int start, int requestEnd) {
+    byte[] body = new byte[(int) chunkedLength];
+    int written = 0;
+    int pos = headerEnd;
+    while (true) {
+      int lineEnd = indexOf(data, start, pos, requestEnd, (byte) '\n');
+      int size = (int) parseHex(data, start + pos, start + lineEnd);
+      pos = lineEnd + 1;
+      if (size == 0) {
+        return body;
+      }
+      System.arraycopy(data, start + pos, body, written, size);
+      written += size;
+      pos = indexOf(data, start, pos + size, requestEnd, (byte) '\n') + 1;
+    }
+  }
+
+  /**
+   * Compares bytes with an ASCII string, ignoring case
+   */
+  static boolean equalsIgnoreCase(byte[] data, int from, int to, String text) {
+    if (to - from != text.length()) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      if (toLower(data[from + i]) != toLower((byte) text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int toLower(byte b) {
+    return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+  }
+
+  private static long parseDecimal(byte[] data, int from, int to) {
+    if (from == to || to - from > 18) {
+      return -1;
+    }
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      if (data[i] < '0' || data[i] > '9') {
+        return -1;
+      }
+      value = value * 10 + (data[i] - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Parses the hex size of a chunk, ignoring chunk extensions (";name=value") and the CR
+   */
+  private static long parseHex(byte[] data, int from, int to) {
+    long value = 0;
+    int digits = 0;
+    for (int i = from; i < to; i++) {
+      int b = toLower(data[i]);
+      if (b == ';' || b == '\r' || b == ' ') {
+        break;
+      }
+      int digit = b >= '0' && b <= '9' ? b - '0' : b >= 'a' && b <= 'f' ? b - 'a' + 10 : -1;
+      if (digit < 0 || ++digits > 8) {
+        return -1;
+      }
+      value = value * 16 + digit;
+    }
+    return digits == 0 ? -1 : value;
+  }
+
+  private static int indexOf(byte[] data, int start, int from, int to, byte b) {
+    for (int i = from; i < to; i++) {
+      if (data[start + i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return offset of the \n ending the line starting at from
+   */
+  private static int lineEnd(byte[] data, int start, int from, int to) {
+    int end = indexOf(data, start, from, to, (byte) '\n');
+    return end < 0 ? to : end;
+  }
+
+  /**
+   * @return end of the line without the \r and trailing blanks
+   */
+  private static int trimEnd(byte[] data, int start, int lineEnd) {
+    int end = lineEnd;
+    while (end > 0 && (data[start + end - 1] == '\r' || data[start + end - 1] == ' ' || data[start + end - 1] == '\t')) {
+      end--;
+    }
+    return end;
+  }
+}
@@ -0,0 +1,137 @@
+package funHttpServer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Growable byte array a response is written into. Text is encoded as UTF-8 right
+ * into the array, no intermediate String or byte[] is made.
+ *
+ * Buffers are pooled: acquire() hands out a used one if there is one and release()
+ * gives it back once the response has been written to the socket.
+ */
+final class ResponseBuffer {
+  private final static int INITIAL_BYTES = 2048;
+  // bigger buffers are not kept, one huge page should not pin memory forever
+  private final static int MAX_POOLED_BYTES = 64 * 1024;
+  private final static int MAX_POOLED = 256;
+
+  private final static Queue<ResponseBuffer> pool = new ConcurrentLinkedQueue<>();
+
+  private byte[] bytes = new byte[INITIAL_BYTES];
+  private int length = 0;
+
+  private ResponseBuffer() {
+  }
+
+  static ResponseBuffer acquire() {
+    ResponseBuffer buffer = pool.poll();
+    return buffer == null ? new ResponseBuffer() : buffer;
+  }
+
+  /**
+   * Hands the buffer back to the pool, it must not be used afterwards
+   */
+  void release() {
+    // size() of the queue walks it, the bound only needs to be roughly right
+    if (bytes.length <= MAX_POOLED_BYTES && pool.size() < MAX_POOLED) {
+      length = 0;
+      pool.offer(this);
+    }
+  }
+
+  byte[] array() {
+    return bytes;
+  }
+
+  int length() {
+    return length;
+  }
+
+  void clear() {
+    length = 0;
+  }
+
+  void append(byte[] data) {
+    append(data, 0, data.length);
+  }
+
+  void append(byte[] data, int offset, int count) {
+    ensure(count);
+    System.arraycopy(data, offset, bytes, length, count);
+    length += count;
+  }
+
+  /**
+   * Writes a number in decimal ASCII
+   */
+  void appendDecimal(long value) {
+    if (value < 0) {
+      ensure(1);
+      bytes[length++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    ensure(digits);
+    for (int i = length + digits - 1; i >= length; i--) {
+      bytes[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  /**
+   * Encodes text as UTF-8 into the buffer
+   */
+  void appendUtf8(CharSequence text) {
+    int count = text.length();
+    // worst case 3 bytes per char, a surrogate pair is 4 bytes for 2 chars
+    ensure(count * 3);
+    byte[] out = bytes;
+    int pos = length;
+    for (int i = 0; i < count; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        out[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        out[pos++] = (byte) (0xC0 | (c >> 6));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+        out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        out[pos++] = '?'; // lone surrogate, not encodable
+      } else {
+        out[pos++] = (byte) (0xE0 | (c >> 12));
+        out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    length = pos;
+  }
+
+  /**
+   * Writes ASCII text, used for header lines
+   */
+  void appendAscii(String text) {
+    int count = text.length();
+    ensure(count);
+    for (int i = 0; i < count; i++) {
+      bytes[length++] = (byte) text.charAt(i);
+    }
+  }
+
+  private void ensure(int extra) {
+    if (length + extra > bytes.length) {
+      byte[] bigger = new byte[Math.max(bytes.length * 2, length + extra)];
+      System.arraycopy(bytes, 0, bigger, 0, length);
+      bytes = bigger;
+    }
+  }
+}
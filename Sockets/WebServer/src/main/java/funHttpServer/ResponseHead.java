@@ -0,0 +1,53 @@
+package funHttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import compression.Compression;
+
+/**
+ * Status line and Content-Type header of a response, already encoded as bytes.
+ * The common combinations are constants, so a response starts with a single
+ * array copy instead of building and encoding the same text again every time.
+ */
+final class ResponseHead {
+  final static ResponseHead OK_HTML = new ResponseHead("200 OK", "text/html; charset=utf-8");
+  final static ResponseHead OK_JSON = new ResponseHead("200 OK", "application/json; charset=utf-8");
+  final static ResponseHead BAD_REQUEST = new ResponseHead("400 Bad Request", "text/html; charset=utf-8");
+  final static ResponseHead NOT_FOUND = new ResponseHead("404 Not Found", "text/html; charset=utf-8");
+  final static ResponseHead RANGE_NOT_SATISFIABLE = new ResponseHead("416 Range Not Satisfiable", "text/html; charset=utf-8");
+  final static ResponseHead SERVER_ERROR = new ResponseHead("500 Internal Server Error", "text/html; charset=utf-8");
+  final static ResponseHead BAD_GATEWAY = new ResponseHead("502 Bad Gateway", "text/html; charset=utf-8");
+  // a 304 has no body and therefore neither Content-Type nor Content-Length
+  final static ResponseHead NOT_MODIFIED = new ResponseHead("304 Not Modified", null);
+
+  // heads made on the fly for file types, they are reused as well
+  private final static Map<String, ResponseHead> others = new ConcurrentHashMap<>();
+
+  final byte[] bytes;
+  final int status;
+  final boolean hasBody;
+  // text that is worth sending compressed
+  final boolean compressible;
+
+  private ResponseHead(String status, String contentType) {
+    String head = "HTTP/1.1 " + status + "\r\n";
+    if (contentType != null) {
+      head += "Content-Type: " + contentType + "\r\n";
+    }
+    this.bytes = head.getBytes(StandardCharsets.US_ASCII);
+    this.status = Integer.parseInt(status.substring(0, 3));
+    this.hasBody = contentType != null;
+    this.compressible = contentType != null && Compression.isCompressible(contentType);
+  }
+
+  /**
+   * @param status status code and reason, e.g. "206 Partial Content"
+   * @param contentType value of the Content-Type header
+   * @return the encoded head, created only the first time it is asked for
+   */
+  static ResponseHead of(String status, String contentType) {
+    return others.computeIfAbsent(status + "\n" + contentType, key -> new ResponseHead(status, contentType));
+  }
+}
@@ -0,0 +1,58 @@
+package funHttpServer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the Handler for a request by the first segment of its path, e.g.
+ * "multiply" for /multiply?num1=3 and "file" for /file/www/index.html.
+ * Lookup is a single hash lookup, so it does not get slower with more endpoints,
+ * and one endpoint can no longer steal requests meant for another just because
+ * its name shows up somewhere in the path.
+ */
+class Router {
+  private final Map<String, Handler> routes = new HashMap<>();
+  private final Handler fallback;
+
+  /**
+   * @param fallback handler used when no route matches
+   */
+  public Router(Handler fallback) {
+    this.fallback = fallback;
+  }
+
+  /**
+   * Registers a handler, segments are matched case insensitive
+   * @param segment first path segment without slashes, "" for the root page
+   * @param handler endpoint to call
+   */
+  public void register(String segment, Handler handler) {
+    routes.put(segment.toLowerCase(), handler);
+  }
+
+  /**
+   * @param path request path without the leading /
+   * @return the matching handler or the fallback
+   */
+  public Handler route(String path) {
+    return routes.getOrDefault(segment(path), fallback);
+  }
+
+  /**
+   * @param path request path without the leading /
+   * @return the registered segment the path belongs to ("root" for the root page)
+   *     or "unknown", used to label metrics
+   */
+  public String name(String path) {
+    String segment = segment(path);
+    if (!routes.containsKey(segment)) {
+      return "unknown";
+    }
+    return segment.isEmpty() ? "root" : segment;
+  }
+
+  private static String segment(String path) {
+    int slash = path.indexOf('/');
+    return (slash < 0 ? path : path.substring(0, slash)).toLowerCase();
+  }
+}
@@ -0,0 +1,412 @@
+/*
+Non-blocking front-end for the fun WebServer.
+
+A single thread owns a java.nio Selector and does all of the accepting, reading
+and writing. The bytes of every connection are fed to its RequestParser and as
+soon as a complete request has arrived it is handed to a bounded pool of worker
+threads which run the (blocking) handler. The worker hands the response back to the selector thread,
+which writes it out without ever blocking on a slow client. A file body is sent
+with FileChannel.transferTo, so the kernel copies it to the socket directly
+(sendfile) and it never ends up on the heap.
+
+This way one slow client no longer holds up everybody else and we do not need
+one thread per open socket.
+
+Connections are persistent (HTTP/1.1 keep-alive): after a response is written
+the connection goes back to reading. Clients may also pipeline, i.e. send several
+requests without waiting for the answers. Requests of one connection are worked
+on strictly one after another so the responses go out in the order they were asked.
+*/
+
+package funHttpServer;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+class SelectorServer {
+  private final static int MAX_HEADER_BYTES = WebServer.MAX_HEADER_BYTES;
+  private final static int MAX_BODY_BYTES = WebServer.MAX_BODY_BYTES;
+  private final static int READ_BUFFER_BYTES = 2048;
+  // keep-alive connections that have been quiet for this long are closed, and so are
+  // clients that do not take any of their response for this long
+  private final static long IDLE_TIMEOUT_MILLIS = 15 * 1000;
+
+  private final static byte[] BUSY = plain("503 Service Unavailable", "Server is busy, please try again later.");
+  private final static byte[] ERROR = plain("500 Internal Server Error", "Error processing request.");
+
+  private final Function<HttpRequest, HttpResponse> handler;
+  private final Metrics metrics;
+  private final ExecutorService workers;
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+
+  // work handed back from the worker threads, only ever run on the selector thread
+  private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Opens the server channel, nothing is accepted until run() is called
+   * @param port to listen on
+   * @param workerThreads number of threads running the handler
+   * @param queueSize number of complete requests allowed to wait for a worker
+   * @param handler turns the parsed request into the response
+   * @param metrics counts connections and bytes as well as the responses made up here
+   */
+  public SelectorServer(int port, int workerThreads, int queueSize,
+                        Function<HttpRequest, HttpResponse> handler, Metrics metrics) throws IOException {
+    this.handler = handler;
+    this.metrics = metrics;
+    this.workers = new ThreadPoolExecutor(workerThreads, workerThreads,
+        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize));
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port));
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+   * Selector loop, runs until the server channel is closed
+   */
+  public void run() {
+    try {
+      long lastSweep = System.currentTimeMillis();
+      while (serverChannel.isOpen()) {
+        selector.select(IDLE_TIMEOUT_MILLIS / 2);
+
+        // first finish whatever the workers handed back to us
+        Runnable task;
+        while ((task = pending.poll()) != null) {
+          task.run();
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept();
+            } else if (key.isReadable()) {
+              read(key);
+            } else if (key.isWritable()) {
+              write(key);
+            }
+          } catch (IOException e) {
+            // a single broken connection should never take down the server
+            close(key);
+          }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastSweep > IDLE_TIMEOUT_MILLIS / 2) {
+          closeIdle(now);
+          lastSweep = now;
+        }
+      }
+    } catch (IOException e) {
+      Log.error("Selector loop failed", e);
+    } finally {
+      workers.shutdown();
+      try {
+        selector.close();
+        serverChannel.close();
+      } catch (IOException e) {
+        Log.warn("Could not close the server socket: %s", e.toString());
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel client;
+    while ((client = serverChannel.accept()) != null) {
+      client.configureBlocking(false);
+      client.register(selector, SelectionKey.OP_READ, new Connection());
+      metrics.connectionOpened();
+    }
+  }
+
+  private void read(SelectionKey key) throws IOException {
+    SocketChannel channel = (SocketChannel) key.channel();
+    Connection conn = (Connection) key.attachment();
+
+    int numRead = channel.read(conn.in);
+    if (numRead < 0) {
+      close(key);
+      return;
+    }
+    metrics.bytesRead(numRead);
+    conn.lastActive = System.currentTimeMillis();
+    dispatch(key);
+  }
+
+  /**
+   * Hands the next buffered request of the connection to a worker if it is complete
+   */
+  private void dispatch(SelectionKey key) {
+    Connection conn = (Connection) key.attachment();
+
+    conn.in.flip();
+    int result = conn.parser.parse(conn.in);
+    conn.in.compact();
+
+    if (result == RequestParser.INCOMPLETE) {
+      if (!conn.in.hasRemaining()) {
+        if (conn.in.capacity() >= MAX_HEADER_BYTES + MAX_BODY_BYTES) {
+          conn.closeAfterWrite = true;
+          metrics.status(413);
+          respond(key, plain("413 Payload Too Large", "Request too large."));
+          return;
+        }
+        conn.grow();
+      }
+      return;
+    }
+    if (result == RequestParser.ERROR) {
+      conn.closeAfterWrite = true;
+      metrics.status(conn.parser.getErrorStatus());
+      respond(key, errorResponse(conn.parser.getErrorStatus()));
+      return;
+    }
+
+    // stop reading while the request is being worked on, anything pipelined
+    // behind it stays in the buffer until this response is written
+    key.interestOps(0);
+    HttpRequest request = conn.parser.getRequest();
+    conn.closeAfterWrite = !request.isKeepAlive();
+
+    try {
+      workers.execute(() -> {
+        HttpResponse response;
+        try {
+          response = handler.apply(request);
+        } catch (RuntimeException e) {
+          // the connection waits for this response with no interest set, it must get one
+          Log.error("Handler failed for /%s", request.getPath(), e);
+          pending.add(() -> {
+            conn.closeAfterWrite = true;
+            metrics.status(500);
+            respond(key, ERROR);
+          });
+          selector.wakeup();
+          return;
+        }
+        // an endpoint waiting on something else finishes later, on another thread
+        response.whenComplete().whenComplete((done, error) -> {
+          pending.add(() -> {
+            if (error != null) {
+              conn.closeAfterWrite = true;
+              respond(key, ERROR);
+            } else {
+              respond(key, response);
+            }
+          });
+          selector.wakeup();
+        });
+      });
+    } catch (RejectedExecutionException e) {
+      // every worker is busy and the queue is full, shed the load right away
+      conn.closeAfterWrite = true;
+      metrics.status(503);
+      respond(key, BUSY);
+    }
+  }
+
+  private static byte[] errorResponse(int status) {
+    switch (status) {
+      case 413:
+        return plain("413 Payload Too Large", "Request body too large.");
+      case 431:
+        return plain("431 Request Header Fields Too Large", "Request header too large.");
+      case 501:
+        return plain("501 Not Implemented", "Transfer encoding not supported.");
+      default:
+        return plain("400 Bad Request", "Malformed request.");
+    }
+  }
+
+  /**
+   * Builds a short text response after which the connection is closed
+   */
+  private static byte[] plain(String status, String message) {
+    return ("HTTP/1.1 " + status + "\r\n"
+        + "Content-Type: text/html; charset=utf-8\r\n"
+        + "Content-Length: " + message.length() + "\r\n"
+        + "Connection: close\r\n"
+        + "\r\n"
+        + message).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private void respond(SelectionKey key, byte[] response) {
+    if (!key.isValid()) {
+      return;
+    }
+    Connection conn = (Connection) key.attachment();
+    conn.out = new ByteBuffer[] {ByteBuffer.wrap(response)};
+    conn.lastActive = System.currentTimeMillis();
+    key.interestOps(SelectionKey.OP_WRITE);
+  }
+
+  private void respond(SelectionKey key, HttpResponse response) {
+    if (!key.isValid()) {
+      response.release();
+      return;
+    }
+    Connection conn = (Connection) key.attachment();
+    if (response.getFile() != null) {
+      try {
+        conn.file = new FileInputStream(response.getFile()).getChannel();
+        conn.filePosition = response.getFileOffset();
+        conn.fileEnd = response.getFileOffset() + response.getFileLength();
+      } catch (IOException e) {
+        // the file went away since the handler looked at it, we promised a body we cannot send
+        response.release();
+        close(key);
+        return;
+      }
+    }
+    // head and body go out in one gathering write, the buffers are released after it
+    conn.out = response.toBuffers();
+    conn.response = response;
+    conn.lastActive = System.currentTimeMillis();
+    key.interestOps(SelectionKey.OP_WRITE);
+  }
+
+  private void write(SelectionKey key) throws IOException {
+    SocketChannel channel = (SocketChannel) key.channel();
+    Connection conn = (Connection) key.attachment();
+
+    if (hasRemaining(conn.out)) {
+      long written = channel.write(conn.out);
+      metrics.bytesWritten(written);
+      if (written > 0) {
+        conn.lastActive = System.currentTimeMillis(); // a slow reader is fine, a stalled one is not
+      }
+      if (hasRemaining(conn.out)) {
+        return;
+      }
+    }
+    if (conn.file != null) {
+      // zero copy, the kernel moves the bytes from the file to the socket
+      long sent = conn.file.transferTo(conn.filePosition, conn.fileEnd - conn.filePosition, channel);
+      if (sent == 0 && conn.filePosition >= conn.file.size()) {
+        // the file got shorter since the response was made, the Content-Length cannot be met
+        Log.warn("File shrank while it was sent, closing the connection");
+        close(key);
+        return;
+      }
+      conn.filePosition += sent;
+      metrics.bytesWritten(sent);
+      if (sent > 0) {
+        conn.lastActive = System.currentTimeMillis();
+      }
+      if (conn.filePosition < conn.fileEnd) {
+        return;
+      }
+      conn.closeFile();
+    }
+    conn.out = null;
+    conn.releaseResponse();
+    conn.lastActive = System.currentTimeMillis();
+    if (conn.closeAfterWrite) {
+      close(key);
+      return;
+    }
+
+    // keep the connection and serve whatever got pipelined in the meantime
+    key.interestOps(SelectionKey.OP_READ);
+    dispatch(key);
+  }
+
+  private static boolean hasRemaining(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (buffer.hasRemaining()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Closes keep-alive connections that are waiting for a new request for too long,
+   * and connections whose client stopped reading its response, with the buffers
+   * and the file they hold. Connections a worker is busy with are left alone.
+   */
+  private void closeIdle(long now) {
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.attachment() instanceof Connection) {
+        Connection conn = (Connection) key.attachment();
+        if (key.interestOps() != 0 && now - conn.lastActive > IDLE_TIMEOUT_MILLIS) {
+          close(key);
+        }
+      }
+    }
+  }
+
+  private void close(SelectionKey key) {
+    if (key.isValid() && key.attachment() instanceof Connection) {
+      metrics.connectionClosed();
+    }
+    key.cancel();
+    if (key.attachment() instanceof Connection) {
+      ((Connection) key.attachment()).closeFile();
+      ((Connection) key.attachment()).releaseResponse();
+    }
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      Log.warn("Could not close a connection: %s", e.toString());
+    }
+  }
+
+  /**
+   * Per connection state, only touched by the selector thread
+   */
+  private static class Connection {
+    ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    final RequestParser parser = new RequestParser(MAX_HEADER_BYTES, MAX_BODY_BYTES);
+    ByteBuffer[] out;
+    // response whose pooled buffers out points into
+    HttpResponse response;
+    // file body still to be sent after out, if any
+    FileChannel file;
+    long filePosition;
+    long fileEnd;
+    long lastActive = System.currentTimeMillis();
+    boolean closeAfterWrite = false;
+
+    void closeFile() {
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          Log.warn("Could not close a file: %s", e.toString());
+        }
+        file = null;
+      }
+    }
+
+    void releaseResponse() {
+      if (response != null) {
+        response.release();
+        response = null;
+      }
+    }
+
+    void grow() {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_HEADER_BYTES + MAX_BODY_BYTES));
+      in.flip();
+      bigger.put(in);
+      in = bigger;
+    }
+  }
+}
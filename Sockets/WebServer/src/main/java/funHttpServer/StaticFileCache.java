@@ -0,0 +1,126 @@
+package funHttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import compression.Compression;
+
+/**
+ * Keeps the content of the files in www/ in memory so repeated requests do not
+ * hit the disk. The cache is bounded by the total number of bytes it holds and
+ * throws out the least recently used file first.
+ *
+ * An entry is only used as long as the modification time and size of the file on
+ * disk are unchanged, so edits to www/ show up on the next request.
+ *
+ * The gzip and deflate variants of an entry are made the first time a client asks
+ * for them and then kept with it, so every file is compressed once and not once per request.
+ */
+class StaticFileCache {
+
+  /**
+   * Content of one file plus what we need for conditional GET requests
+   */
+  static class Entry {
+    final byte[] bytes;
+    final long lastModified;
+    final String etag;
+    // compressed variants, made when first needed
+    private volatile byte[] gzip;
+    private volatile byte[] deflate;
+
+    Entry(byte[] bytes, long lastModified) {
+      this.bytes = bytes;
+      this.lastModified = lastModified;
+      this.etag = "\"" + Long.toHexString(lastModified) + "-" + Integer.toHexString(bytes.length) + "\"";
+    }
+
+    /**
+     * @param encoding Compression.GZIP or Compression.DEFLATE
+     * @return the content compressed with the encoding
+     */
+    byte[] encoded(String encoding) {
+      // two threads may both compress the first time, both results are the same
+      if (encoding.equals(Compression.GZIP)) {
+        if (gzip == null) {
+          gzip = Compression.compress(bytes, 0, bytes.length, encoding, Deflater.BEST_COMPRESSION);
+        }
+        return gzip;
+      }
+      if (deflate == null) {
+        deflate = Compression.compress(bytes, 0, bytes.length, encoding, Deflater.BEST_COMPRESSION);
+      }
+      return deflate;
+    }
+
+    /**
+     * @param encoding content encoding of the response or null
+     * @return the ETag of that variant, every encoding needs a tag of its own
+     */
+    String etag(String encoding) {
+      return encoding == null ? etag : etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+  }
+
+  private final long maxBytes;
+  private long currentBytes = 0;
+
+  // access ordered, so iteration starts with the least recently used file
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * @param maxBytes upper bound for the bytes of all cached files together
+   */
+  public StaticFileCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the content of the file, from memory if it did not change on disk
+   * @param file file to read
+   * @return content and validators of the file
+   * @throws IOException if the file cannot be read
+   */
+  public Entry get(File file) throws IOException {
+    String key = file.getPath();
+    long lastModified = file.lastModified();
+    long length = file.length();
+
+    synchronized (this) {
+      Entry cached = entries.get(key);
+      if (cached != null && cached.lastModified == lastModified && cached.bytes.length == length) {
+        return cached;
+      }
+    }
+
+    // read outside the lock so a slow disk does not hold up cache hits
+    Entry entry = new Entry(Files.readAllBytes(file.toPath()), lastModified);
+    if (entry.bytes.length > maxBytes) {
+      return entry; // too big to ever fit, just hand it out
+    }
+
+    synchronized (this) {
+      Entry old = entries.put(key, entry);
+      if (old != null) {
+        currentBytes -= old.bytes.length;
+      }
+      currentBytes += entry.bytes.length;
+
+      Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+      while (currentBytes > maxBytes && eldest.hasNext()) {
+        Entry evicted = eldest.next().getValue();
+        if (evicted == entry) {
+          continue;
+        }
+        currentBytes -= evicted.bytes.length;
+        eldest.remove();
+      }
+    }
+    return entry;
+  }
+}
@@ -4,14 +4,14 @@ localhost:9000/ and show you the root.html webpage from the www/root.html folder
 You can also do some other simple GET requests:
 1) /random shows you a random picture (well random from the set defined)
 2) json shows you the response as JSON for /random instead the html page
-3) /file/filename shows you the raw file (not as HTML)
+3) /file/filename shows you the raw file (not as HTML), Range requests are supported
 4) /multiply?num1=3&num2=4 multiplies the two inputs and responses with the result
-5) /github?query=users/amehlhase316/repos (or other GitHub repo owners) will lead to receiving
-   JSON which will for now only be printed in the console. See the todo below
+5) /github?query=users/amehlhase316/repos (or other GitHub repo owners) lists the repos
+   of that owner, answers from GitHub are cached for a minute
 
 The reading of the request is done "manually", meaning no library that helps making things a 
 little easier is used. This is done so you see exactly how to pars the request and 
-write a response back
+write a response back. See RequestParser for how the bytes of a request are taken apart.
 */
 
 package funHttpServer;
@@ -24,51 +24,51 @@ import java.util.HashMap;
 import java.util.Random;
 import java.util.Map;
 import java.util.LinkedHashMap;
-import java.nio.charset.Charset;
+import java.util.concurrent.CompletionException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import compression.Compression;
 import org.json.*;
 
 class WebServer {
+  // threads running createResponse and how many finished requests may wait for them
+  private final static int WORKER_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+  private final static int WORKER_QUEUE = 1024;
+  // largest request header and body we accept
+  final static int MAX_HEADER_BYTES = 16 * 1024;
+  final static int MAX_BODY_BYTES = 1024 * 1024;
+
   public static void main(String args[]) {
     WebServer server = new WebServer(9000);
   }
 
   /**
-   * Main thread
+   * Main thread, runs the non-blocking front-end which hands every request
+   * to a pool of workers generating the response
    * @param port to listen on
    */
   public WebServer(int port) {
-    ServerSocket server = null;
-    Socket sock = null;
-    InputStream in = null;
-    OutputStream out = null;
-
     try {
-      server = new ServerSocket(port);
-      while (true) {
-        sock = server.accept();
-        out = sock.getOutputStream();
-        in = sock.getInputStream();
-        byte[] response = createResponse(in);
-        out.write(response);
-        out.flush();
-        in.close();
-        out.close();
-        sock.close();
-      }
+      SelectorServer server = new SelectorServer(port, WORKER_THREADS, WORKER_QUEUE, this::respond, metrics);
+      Log.info("Listening on port %d", port);
+      server.run();
     } catch (IOException e) {
-      e.printStackTrace();
-    } finally {
-      if (sock != null) {
-        try {
-          server.close();
-        } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-        }
-      }
+      Log.error("Server on port %d stopped", port, e);
     }
   }
 
+  /**
+   * Server without a socket, for calling createResponse directly (see the benchmarks project)
+   */
+  WebServer() {
+  }
+
   /**
    * Used in the "/random" endpoint
    */
@@ -81,306 +81,479 @@ class WebServer {
 
   private Random random = new Random();
 
+  // content of the files in www/, 8 MB is plenty for the pages we serve
+  private final StaticFileCache fileCache = new StaticFileCache(8 * 1024 * 1024);
+
+  // GitHub answers are reused for a minute, -Dgithub.url=http://localhost:8080/ points it at a stub
+  private final GithubProxy github = new GithubProxy(
+      System.getProperty("github.url", "https://api.github.com/"), 60 * 1000);
+
+  // the rendered "/" page, rebuilt when root.html or the www/ directory changes
+  private volatile StaticFileCache.Entry rootPage;
+
+  // request counts and latencies, shown on "/metrics"
+  private final Metrics metrics = new Metrics();
+
+  private final Router router = new Router(this::unknown);
+
+  {
+    // every endpoint is registered by the first segment of its path
+    router.register("", this::root);
+    router.register("json", this::json);
+    router.register("random", this::random);
+    router.register("file", this::file);
+    router.register("multiply", this::multiply);
+    router.register("github", this::github);
+    router.register("fortuneTeller", this::fortuneTeller);
+    router.register("concatenateWords", this::concatenateWords);
+    router.register("metrics", metrics::handle);
+  }
+
   /**
    * Reads in socket stream and generates a response
    * @param inStream HTTP input stream from socket
    * @return the byte encoded HTTP response
    */
   public byte[] createResponse(InputStream inStream) {
+    HttpResponse response = respond(inStream);
+    try {
+      return response.toBytesWithFile();
+    } catch (IOException e) {
+      Log.error("Could not read the file of the response", e);
+      response.start(ResponseHead.SERVER_ERROR);
+      response.append("<html>ERROR: ").append(e.getMessage()).append("</html>");
+      return response.toBytes();
+    } finally {
+      response.release();
+    }
+  }
 
-    byte[] response = null;
-    BufferedReader in = null;
+  /**
+   * Reads in socket stream and generates a response, a file body is left in the
+   * file so the caller can stream it
+   * @param inStream HTTP input stream from socket
+   * @return the HTTP response
+   */
+  public HttpResponse respond(InputStream inStream) {
+    HttpRequest request = null;
+    try {
+      request = new RequestParser(MAX_HEADER_BYTES, MAX_BODY_BYTES).read(inStream);
+    } catch (IOException e) {
+      Log.warn("Could not read the request: %s", e.toString());
+    }
+    return respond(request);
+  }
+
+  /**
+   * Generates the response for a parsed request
+   * @param request the request, null if it could not be read
+   * @return the HTTP response
+   */
+  public HttpResponse respond(HttpRequest request) {
+    HttpResponse response = new HttpResponse();
+    long start = System.nanoTime();
+    String route = request == null ? "unknown" : router.name(request.getPath());
+    if (request != null) {
+      response.acceptEncoding(Compression.negotiate(request.getHeader("Accept-Encoding")));
+    }
 
     try {
+      // Generate an appropriate response to the user
+      if (request == null || !(request.getMethod().equals("GET") || request.getMethod().equals("POST"))) {
+        response.start(ResponseHead.BAD_REQUEST);
+        response.append("<html>Illegal request: no GET</html>");
+      } else {
+        router.route(request.getPath()).handle(request, response);
+      }
+    } catch (IOException | RuntimeException e) {
+      Log.error("%s failed", route, e);
+      response.start(ResponseHead.SERVER_ERROR);
+      response.append("<html>ERROR: " + e.getMessage() + "</html>");
+    }
 
-      // Read from socket's input stream. Must use an
-      // InputStreamReader to bridge from streams to a reader
-      in = new BufferedReader(new InputStreamReader(inStream, "UTF-8"));
+    // compressed and recorded once the response is ready, for /github that is when GitHub
+    // answered; the front-end sends it only after this, so compressing stays off the selector
+    response.completeLater(response.whenComplete().whenComplete((done, error) -> {
+      if (error == null) {
+        response.compress();
+      }
+      long nanos = System.nanoTime() - start;
+      int status = error != null ? 500 : response.getStatus();
+      metrics.request(route, status, nanos);
+      if (Log.isEnabled(Log.Level.DEBUG) && Log.sampled()) {
+        Log.debug("%s /%s %d %dus", request == null ? "-" : request.getMethod(),
+            request == null ? "" : request.getPath(), status, nanos / 1000);
+      }
+    }));
+    return response;
+  }
 
-      // Get header and save the request from the GET line:
-      // example GET format: GET /index.html HTTP/1.1
+  /**
+   * "/" shows the default directory page
+   */
+  private void root(HttpRequest request, HttpResponse response) throws IOException {
+    // opens the root.html file
+    StaticFileCache.Entry template = fileCache.get(new File("www/root.html"));
+    long lastModified = Math.max(template.lastModified, new File("www/").lastModified());
+
+    StaticFileCache.Entry page = rootPage;
+    if (page == null || page.lastModified != lastModified) {
+      // performs a template replacement in the page, only when the template or the file list changed
+      String html = new String(template.bytes, StandardCharsets.UTF_8).replace("${links}", buildFileList())
+          + getMainPageContent();
+      page = new StaticFileCache.Entry(html.getBytes(StandardCharsets.UTF_8), lastModified);
+      rootPage = page;
+    }
 
-      String request = null;
+    // Generate response
+    if (notModified(request, page, ResponseHead.OK_HTML, response)) {
+      return;
+    }
+    response.start(ResponseHead.OK_HTML);
+    appendValidators(page, response);
+    response.append(page);
+  }
 
-      boolean done = false;
-      while (!done) {
-        String line = in.readLine();
+  /**
+   * "/json" shows the JSON of a random image and sets the header name for that image
+   */
+  private void json(HttpRequest request, HttpResponse response) {
+    // pick a index from the map
+    int index = random.nextInt(_images.size());
+
+    // pull out the information
+    String header = (String) _images.keySet().toArray()[index];
+    String url = _images.get(header);
+
+    // Generate response
+    response.start(ResponseHead.OK_JSON);
+    response.append("{");
+    response.append("\"header\":\"").append(header).append("\",");
+    response.append("\"image\":\"").append(url).append("\"");
+    response.append("}");
+  }
 
-        System.out.println("Received: " + line);
+  /**
+   * "/random" opens the random image page
+   */
+  private void random(HttpRequest request, HttpResponse response) throws IOException {
+    // open the index.html
+    StaticFileCache.Entry file = fileCache.get(new File("www/index.html"));
 
-        // find end of header("\n\n")
-        if (line == null || line.equals(""))
-          done = true;
-          // parse GET format ("GET <path> HTTP/1.1")
-        else if (line.startsWith("GET")) {
-          int firstSpace = line.indexOf(" ");
-          int secondSpace = line.indexOf(" ", firstSpace + 1);
+    // Generate response
+    if (notModified(request, file, ResponseHead.OK_HTML, response)) {
+      return;
+    }
+    response.start(ResponseHead.OK_HTML);
+    appendValidators(file, response);
+    response.append(file);
+  }
 
-          // extract the request, basically everything after the GET up to HTTP/1.1
-          request = line.substring(firstSpace + 2, secondSpace);
+  /**
+   * Answers a conditional GET with "304 Not Modified" if the client already has the current version.
+   * If-None-Match wins over If-Modified-Since when both are sent.
+   * @param request the request with the client's validators
+   * @param entry the current version of the content
+   * @param ok the head a 200 response would have, a 304 keeps its Vary header
+   * @param response only written to if the content did not change
+   * @return true if a 304 response was written
+   */
+  private static boolean notModified(HttpRequest request, StaticFileCache.Entry entry, ResponseHead ok,
+      HttpResponse response) {
+    boolean notModified = false;
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    String ifModifiedSince = request.getHeader("If-Modified-Since");
+
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals("*") || tag.equals(entry.etag(response.encodingFor(entry)))) {
+          notModified = true;
         }
+      }
+    } else if (ifModifiedSince != null) {
+      try {
+        long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        // HTTP dates only have second precision
+        notModified = entry.lastModified / 1000 <= since;
+      } catch (DateTimeParseException e) {
+        // an invalid date is ignored, like the header was not sent
+      }
+    }
 
+    if (notModified) {
+      response.start(ResponseHead.NOT_MODIFIED);
+      appendValidators(entry, response);
+      if (ok.compressible) {
+        response.header("Vary", "Accept-Encoding");
       }
-      System.out.println("FINISHED PARSING HEADER\n");
+    }
+    return notModified;
+  }
 
-      // Generate an appropriate response to the user
-      if (request == null) {
-        response = "<html>Illegal request: no GET</html>".getBytes();
-      } else {
-        // create output buffer
-        StringBuilder builder = new StringBuilder();
-        // NOTE: output from buffer is at the end
-
-        if (request.length() == 0) {
-          // shows the default directory page
-
-          // opens the root.html file
-          String page = new String(readFileInBytes(new File("www/root.html")));
-          // performs a template replacement in the page
-          page = page.replace("${links}", buildFileList());
-
-          // Generate response
-          builder.append("HTTP/1.1 200 OK\n");
-          builder.append("Content-Type: text/html; charset=utf-8\n");
-          builder.append("\n");
-          builder.append(page);
-          builder.append(getMainPageContent());
-
-        } else if (request.equalsIgnoreCase("json")) {
-          // shows the JSON of a random image and sets the header name for that image
-
-          // pick a index from the map
-          int index = random.nextInt(_images.size());
-
-          // pull out the information
-          String header = (String) _images.keySet().toArray()[index];
-          String url = _images.get(header);
-
-          // Generate response
-          builder.append("HTTP/1.1 200 OK\n");
-          builder.append("Content-Type: application/json; charset=utf-8\n");
-          builder.append("\n");
-          builder.append("{");
-          builder.append("\"header\":\"").append(header).append("\",");
-          builder.append("\"image\":\"").append(url).append("\"");
-          builder.append("}");
-
-        } else if (request.equalsIgnoreCase("random")) {
-          // opens the random image page
-
-          // open the index.html
-          File file = new File("www/index.html");
-
-          // Generate response
-          builder.append("HTTP/1.1 200 OK\n");
-          builder.append("Content-Type: text/html; charset=utf-8\n");
-          builder.append("\n");
-          builder.append(new String(readFileInBytes(file)));
-
-        } else if (request.contains("file/")) {
-          // tries to find the specified file and shows it or shows an error
-
-          // take the path and clean it. try to open the file
-          File file = new File(request.replace("file/", ""));
-
-          // Generate response
-          if (file.exists()) { // success
-            builder.append("HTTP/1.1 200 OK\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Would theoretically be a file but removed this part, you do not have to do anything with it for the assignment");
-          } else { // failure
-            builder.append("HTTP/1.1 404 Not Found\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("File not found: " + file);
-          }
-        } // request to multiply two numbers
-        else if (request.contains("multiply?")) {
-          try {
-            Map<String, String> queryPairs = splitQuery(request.replace("multiply?", ""));
-
-            // Set default values of 1
-            int num1 = 1;
-            int num2 = 1;
-
-            // Extract and parse num1 and num2 from query parameters
-            if (queryPairs.containsKey("num1") && queryPairs.containsKey("num2")) {
-              num1 = Integer.parseInt(queryPairs.get("num1"));
-              num2 = Integer.parseInt(queryPairs.get("num2"));
-            } else {
-              throw new IllegalArgumentException("Missing or invalid input parameters");
-            }
-
-            // Perform multiplication
-            int result = num1 * num2;
-
-            // Generate response
-            builder.append("HTTP/1.1 200 OK\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Result is: " + result);
-          } catch (NumberFormatException e) {
-            builder.append("HTTP/1.1 400 Bad Request\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Invalid input: Please enter an integer.");
-            return builder.toString().getBytes();
-          } catch (IllegalArgumentException e) {
-            builder.append("HTTP/1.1 400 Bad Request\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append(e.getMessage());
-            return builder.toString().getBytes();
-          } catch (Exception e) {
-            builder.append("HTTP/1.1 500 Internal Server Error\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Error processing request.");
-            e.printStackTrace();
-            return builder.toString().getBytes();
-          }
+  /**
+   * Adds the ETag and Last-Modified headers the client can send back in a conditional GET
+   */
+  private static void appendValidators(StaticFileCache.Entry entry, HttpResponse response) {
+    response.header("ETag", entry.etag(response.encodingFor(entry)));
+    response.header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        ZonedDateTime.ofInstant(Instant.ofEpochMilli(entry.lastModified), ZoneOffset.UTC)));
+  }
+
+  /**
+   * "/file/name" sends the raw file, also parts of it if the client asks for a Range.
+   * The file is not read into memory, the front-end copies it straight to the socket.
+   */
+  private void file(HttpRequest request, HttpResponse response) {
+    // take the path and clean it, only files below the directory the server runs in are served
+    String name = request.getPath().substring("file".length()).replaceFirst("^/+", "");
+    Path docRoot = Paths.get("").toAbsolutePath();
+    Path path = docRoot.resolve(name).normalize();
+    File file = path.toFile();
+
+    // Generate response
+    if (!path.startsWith(docRoot) || !file.isFile()) { // failure
+      response.start(ResponseHead.NOT_FOUND);
+      response.append("File not found: " + name);
+      return;
+    }
+
+    long length = file.length();
+    String contentType = URLConnection.guessContentTypeFromName(file.getName());
+    if (contentType == null) {
+      contentType = "application/octet-stream";
+    }
+
+    long[] range = parseRange(request.getHeader("Range"), length);
+    if (range == null) { // whole file
+      response.start(ResponseHead.of("200 OK", contentType));
+      response.header("Accept-Ranges", "bytes");
+      response.sendFile(file, 0, length);
+    } else if (range.length == 0) { // the range is outside the file
+      response.start(ResponseHead.RANGE_NOT_SATISFIABLE);
+      response.header("Content-Range", "bytes */" + length);
+    } else {
+      response.start(ResponseHead.of("206 Partial Content", contentType));
+      response.header("Accept-Ranges", "bytes");
+      response.header("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+      response.sendFile(file, range[0], range[1] - range[0] + 1);
+    }
+  }
+
+  /**
+   * Parses a single "Range: bytes=first-last" header, also the open forms
+   * "bytes=first-" and "bytes=-suffixLength". Several ranges in one header are not
+   * supported, the whole file is sent instead which is allowed by HTTP.
+   * @param header value of the Range header, may be null
+   * @param length length of the file
+   * @return null to send the whole file, an empty array if the range cannot be
+   *     satisfied, otherwise first and last byte (inclusive)
+   */
+  static long[] parseRange(String header, long length) {
+    if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+      return null;
+    }
+    String spec = header.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+    try {
+      long first;
+      long last;
+      if (dash == 0) { // last N bytes
+        long suffix = Long.parseLong(spec.substring(1));
+        if (suffix == 0) {
+          return new long[0];
         }
-        else if (request.contains("github?")) {
-          // pulls the query from the request and runs it with GitHub's REST API
-          // check out https://docs.github.com/rest/reference/
-          //
-          // HINT: REST is organized by nesting topics. Figure out the biggest one first,
-          //     then drill down to what you care about
-          // "Owner's repo is named RepoName. Example: find RepoName's contributors" translates to
-          //     "/repos/OWNERNAME/REPONAME/contributors"
-
-          Map<String, String> query_pairs = new LinkedHashMap<String, String>();
-          query_pairs = splitQuery(request.replace("github?", ""));
-          String json = fetchURL("https://api.github.com/" + query_pairs.get("query"));
-          System.out.println(json);
-
-          builder.append("HTTP/1.1 200 OK\n");
-          builder.append("Content-Type: text/html; charset=utf-8\n");
-          builder.append("\n");
-          builder.append("Check the todos mentioned in the Java source file");
-          // TODO: Parse the JSON returned by your fetch and create an appropriate
-          // response based on what the assignment document asks for
-          try {
-            JSONArray a = new JSONArray(json);
-            for (int i = 0; i < a.length(); i++) {
-              JSONObject o = a.getJSONObject(i);
-              JSONObject own = o.getJSONObject("owner");
-
-              builder.append("HTTP/1.1 200 OK\n");
-              builder.append("Content-Type: text/html; charset=utf-8\n");
-              builder.append("\n");
-              builder.append(own.get("login") + ", " + own.get("id") + " -> " + o.get("name"));
-            }
-          } catch (JSONException e) {
-            builder.append("HTTP/1.1 500 Internal Server Error\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Error parsing JSON response.");
-          }
+        first = Math.max(0, length - suffix);
+        last = length - 1;
+      } else {
+        first = Long.parseLong(spec.substring(0, dash));
+        last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+        if (last < first) {
+          return null; // syntactically invalid, ignore it
         }
-        // request for a fortune teller
-        else if (request.contains("fortuneTeller?")) {
-          try {
-            Map<String, String> queryPairs = splitQuery(request.replace("fortuneTeller?", ""));
-
-            // Check if both parameters are present
-            if (!queryPairs.containsKey("number") || !queryPairs.containsKey("color")) {
-              builder.append("HTTP/1.1 400 Bad Request\n");
-              builder.append("Content-Type: text/html; charset=utf-8\n");
-              builder.append("\n");
-              builder.append("Missing required parameters. Usage: /fortuneTeller?number=NUMBER&color=COLOR");
-              return builder.toString().getBytes();
-            }
-
-            // Extract number and color from parameters
-            int number = Integer.parseInt(queryPairs.get("number"));
-            String color = queryPairs.get("color");
-
-            // Generate lucky combo message
-            String result = handleFortuneTellerRequest(number, color);
-
-            // Generate response
-            builder.append("HTTP/1.1 200 OK\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append(result);
-          } catch (NumberFormatException e) {
-            builder.append("HTTP/1.1 400 Bad Request\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Invalid input: Number must be a valid integer.");
-            return builder.toString().getBytes();
-          } catch (Exception e) {
-            builder.append("HTTP/1.1 500 Internal Server Error\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Error processing request.");
-            e.printStackTrace();
-            return builder.toString().getBytes();
-          }
+        if (first >= length) {
+          return new long[0];
         }
+        last = Math.min(last, length - 1);
+      }
+      return new long[] {first, last};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
 
-        // request to concatenate 2 words
-        else if (request.contains("concatenateWords?")) {
-          try {
-            Map<String, String> queryPairs = splitQuery(request.replace("concatenateWords?", ""));
-
-            // Check if word1 and word2 parameters are provided
-            if (!queryPairs.containsKey("word1") || !queryPairs.containsKey("word2")) {
-              builder.append("HTTP/1.1 400 Bad Request\n");
-              builder.append("Content-Type: text/html; charset=utf-8\n");
-              builder.append("\n");
-              builder.append("Missing required parameters. Usage: /concatenateWords?word1=WORD1&word2=WORD2");
-              return builder.toString().getBytes();
-            }
-
-            // Extract word1 and word2 from parameters
-            String word1 = queryPairs.get("word1");
-            String word2 = queryPairs.get("word2");
-
-            // Concatenate words
-            String concatenated = word1 + word2;
-
-            // Generate response
-            builder.append("HTTP/1.1 200 OK\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Concatenated words: " + concatenated);
-          } catch (Exception e) {
-            builder.append("HTTP/1.1 500 Internal Server Error\n");
-            builder.append("Content-Type: text/html; charset=utf-8\n");
-            builder.append("\n");
-            builder.append("Error processing request.");
-            e.printStackTrace();
-            return builder.toString().getBytes();
-          }
-        }
+  /**
+   * "/multiply?num1=3&num2=4" request to multiply two numbers
+   */
+  private void multiply(HttpRequest request, HttpResponse response) {
+    try {
+      Query queryPairs = request.getParameters();
 
-        else {
-          // if the request is not recognized at all
+      // Set default values of 1
+      int num1 = 1;
+      int num2 = 1;
 
-          builder.append("HTTP/1.1 400 Bad Request\n");
-          builder.append("Content-Type: text/html; charset=utf-8\n");
-          builder.append("\n");
-          builder.append("I am not sure what you want me to do...");
+      // Extract and parse num1 and num2 from query parameters
+      if (queryPairs.has("num1") && queryPairs.has("num2")) {
+        num1 = queryPairs.getInt("num1");
+        num2 = queryPairs.getInt("num2");
+      } else {
+        throw new IllegalArgumentException("Missing or invalid input parameters");
+      }
+
+      // Perform multiplication
+      int result = num1 * num2;
+
+      // Generate response
+      response.start(ResponseHead.OK_HTML);
+      response.append("Result is: ").append(result);
+    } catch (NumberFormatException e) {
+      response.start(ResponseHead.BAD_REQUEST);
+      response.append("Invalid input: Please enter an integer.");
+    } catch (IllegalArgumentException e) {
+      response.start(ResponseHead.BAD_REQUEST);
+      response.append(e.getMessage());
+    } catch (Exception e) {
+      response.start(ResponseHead.SERVER_ERROR);
+      response.append("Error processing request.");
+      Log.error("Request failed", e);
+    }
+  }
+
+  /**
+   * "/github?query=users/amehlhase316/repos" pulls the query from the request
+   * and runs it with GitHub's REST API. The request to GitHub runs asynchronously,
+   * no thread of ours waits for it.
+   */
+  private void github(HttpRequest request, HttpResponse response) {
+    // check out https://docs.github.com/rest/reference/
+    //
+    // HINT: REST is organized by nesting topics. Figure out the biggest one first,
+    //     then drill down to what you care about
+    // "Owner's repo is named RepoName. Example: find RepoName's contributors" translates to
+    //     "/repos/OWNERNAME/REPONAME/contributors"
+
+    String query = request.getParameters().get("query");
+    if (query == null || query.isEmpty()) {
+      response.start(ResponseHead.BAD_REQUEST);
+      response.append("Missing required parameter. Usage: /github?query=users/OWNER/repos");
+      return;
+    }
+
+    response.completeLater(github.fetch(query).handle((json, error) -> {
+      Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+      if (cause instanceof IllegalArgumentException) {
+        response.start(ResponseHead.BAD_REQUEST);
+        response.append("Invalid query. Usage: /github?query=users/OWNER/repos");
+        return null;
+      }
+      if (error != null) {
+        response.start(ResponseHead.BAD_GATEWAY);
+        response.append("Could not get an answer from GitHub.");
+        return null;
+      }
+      try {
+        JSONArray a = new JSONArray(json);
+        // written straight into the response, start() drops it again if the JSON turns out broken
+        response.start(ResponseHead.OK_HTML);
+        for (int i = 0; i < a.length(); i++) {
+          JSONObject o = a.getJSONObject(i);
+          JSONObject own = o.getJSONObject("owner");
+          response.append(own.get("login")).append(", ").append(own.get("id"))
+              .append(" -> ").append(o.get("name")).append("<br>");
         }
+      } catch (JSONException e) {
+        response.start(ResponseHead.SERVER_ERROR);
+        response.append("Error parsing JSON response.");
+      }
+      return null;
+    }));
+  }
 
-        // Output
-        response = builder.toString().getBytes();
+  /**
+   * "/fortuneTeller?number=NUMBER&color=COLOR" request for a fortune teller
+   */
+  private void fortuneTeller(HttpRequest request, HttpResponse response) {
+    try {
+      Query queryPairs = request.getParameters();
+
+      // Check if both parameters are present
+      if (!queryPairs.has("number") || !queryPairs.has("color")) {
+        response.start(ResponseHead.BAD_REQUEST);
+        response.append("Missing required parameters. Usage: /fortuneTeller?number=NUMBER&color=COLOR");
+        return;
       }
-    } catch (IOException e) {
-      e.printStackTrace();
-      response = ("<html>ERROR: " + e.getMessage() + "</html>").getBytes();
+
+      // Extract number and color from parameters
+      int number = queryPairs.getInt("number");
+      String color = queryPairs.get("color");
+
+      // Generate lucky combo message
+      String result = handleFortuneTellerRequest(number, color);
+
+      // Generate response
+      response.start(ResponseHead.OK_HTML);
+      response.append(result);
+    } catch (NumberFormatException e) {
+      response.start(ResponseHead.BAD_REQUEST);
+      response.append("Invalid input: Number must be a valid integer.");
+    } catch (Exception e) {
+      response.start(ResponseHead.SERVER_ERROR);
+      response.append("Error processing request.");
+      Log.error("Request failed", e);
     }
+  }
 
-    return response;
+  /**
+   * "/concatenateWords?word1=WORD1&word2=WORD2" request to concatenate 2 words
+   */
+  private void concatenateWords(HttpRequest request, HttpResponse response) {
+    try {
+      Query queryPairs = request.getParameters();
+
+      // Check if word1 and word2 parameters are provided
+      if (!queryPairs.has("word1") || !queryPairs.has("word2")) {
+        response.start(ResponseHead.BAD_REQUEST);
+        response.append("Missing required parameters. Usage: /concatenateWords?word1=WORD1&word2=WORD2");
+        return;
+      }
+
+      // Extract word1 and word2 from parameters
+      String word1 = queryPairs.get("word1");
+      String word2 = queryPairs.get("word2");
+
+      // Concatenate words
+      String concatenated = word1 + word2;
+
+      // Generate response
+      response.start(ResponseHead.OK_HTML);
+      response.append("Concatenated words: " + concatenated);
+    } catch (Exception e) {
+      response.start(ResponseHead.SERVER_ERROR);
+      response.append("Error processing request.");
+      Log.error("Request failed", e);
+    }
+  }
+
+  /**
+   * if the request is not recognized at all
+   */
+  private void unknown(HttpRequest request, HttpResponse response) {
+    response.start(ResponseHead.BAD_REQUEST);
+    response.append("I am not sure what you want me to do...");
   }
 
   //In this request we are converting the US dollar to the Japanese yen.
 
 /**
- * Method to read in a query and split it up correctly
+ * Method to read in a query and split it up correctly. The endpoints use the
+ * lazily decoding Query instead, this builds the whole map up front.
  * @param query parameters on path
  * @return Map of all parameters and their specific values
  * @throws UnsupportedEncodingException If the URLs aren't encoded with UTF-8
@@ -393,7 +566,15 @@ class WebServer {
     String[] pairs = query.split("&");
     // ["q=hello+world%2Fme", "bob=5"]
     for (String pair : pairs) {
+      if (pair.isEmpty()) {
+        continue;
+      }
       int idx = pair.indexOf("=");
+      if (idx < 0) {
+        // parameter without a value, e.g. "flag" in "flag&bob=5"
+        query_pairs.put(URLDecoder.decode(pair, "UTF-8"), "");
+        continue;
+      }
       query_pairs.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"),
               URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
     }
@@ -448,43 +629,6 @@ class WebServer {
     return result;
   }
 
-  /**
-   *
-   * a method to make a web request. Note that this method will block execution
-   * for up to 20 seconds while the request is being satisfied. Better to use a
-   * non-blocking request.
-   *
-   * @param aUrl the String indicating the query url for the OMDb api search
-   * @return the String result of the http request.
-   *
-   **/
-  public String fetchURL(String aUrl) {
-    StringBuilder sb = new StringBuilder();
-    URLConnection conn = null;
-    InputStreamReader in = null;
-    try {
-      URL url = new URL(aUrl);
-      conn = url.openConnection();
-      if (conn != null)
-        conn.setReadTimeout(20 * 1000); // timeout in 20 seconds
-      if (conn != null && conn.getInputStream() != null) {
-        in = new InputStreamReader(conn.getInputStream(), Charset.defaultCharset());
-        BufferedReader br = new BufferedReader(in);
-        if (br != null) {
-          int ch;
-          // read the next character until end of reader
-          while ((ch = br.read()) != -1) {
-            sb.append((char) ch);
-          }
-          br.close();
-        }
-      }
-      in.close();
-    } catch (Exception ex) {
-      System.out.println("Exception in url request:" + ex.getMessage());
-    }
-    return sb.toString();
-  }
   public static String getMainPageContent() {
     StringBuilder builder = new StringBuilder();
     builder.append("To have your fortune told, make a GET request to /fortuneTeller?number=NUMBER&color=COLOR<br>");
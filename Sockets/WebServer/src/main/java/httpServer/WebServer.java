@@ -2,9 +2,88 @@ package httpServer;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import compression.CompressedFiles;
+import compression.Compression;
+
+/**
+ * Static file server for the directory it is started in (the docroot).
+ *
+ * The main thread only accepts connections, a fixed pool of worker threads serves
+ * them. Connections are kept open for further requests (HTTP/1.1 keep-alive) until
+ * the client closes them or stays quiet for READ_TIMEOUT_MILLIS. When every worker
+ * is busy and the queue is full, new connections get a 503 right away.
+ *
+ * Files are sent with FileChannel.transferTo, text is sent compressed if the client
+ * accepts it. Paths are resolved so that nothing outside the docroot can be read,
+ * neither with "../" nor through a symbolic link.
+ */
 class WebServer {
 
+    // compressed variants of the text files, shared by all connections
+    private final static CompressedFiles compressedFiles = new CompressedFiles(16 * 1024 * 1024);
+
+    // worker threads and how many accepted connections may wait for one of them
+    final static int WORKER_THREADS = Integer.getInteger("workers", 64);
+    final static int WORKER_QUEUE = 256;
+    // connections the OS keeps waiting for accept()
+    final static int BACKLOG = 256;
+    // a connection without a (next) request for this long is closed
+    final static int READ_TIMEOUT_MILLIS = 5 * 1000;
+    // pause after a failed accept(), e.g. when out of file descriptors
+    final static int ACCEPT_BACKOFF_MILLIS = 100;
+
+    private final static byte[] BUSY = ("HTTP/1.1 503 Service Unavailable\r\n"
+        + "Content-Length: 0\r\n"
+        + "Retry-After: 1\r\n"
+        + "Connection: close\r\n"
+        + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    // types URLConnection does not know or gets wrong, by file extension
+    private final static Map<String, String> MIME_TYPES = new HashMap<>();
+    static {
+        MIME_TYPES.put("html", "text/html; charset=utf-8");
+        MIME_TYPES.put("htm", "text/html; charset=utf-8");
+        MIME_TYPES.put("css", "text/css; charset=utf-8");
+        MIME_TYPES.put("js", "application/javascript; charset=utf-8");
+        MIME_TYPES.put("json", "application/json; charset=utf-8");
+        MIME_TYPES.put("txt", "text/plain; charset=utf-8");
+        MIME_TYPES.put("md", "text/markdown; charset=utf-8");
+        MIME_TYPES.put("csv", "text/csv; charset=utf-8");
+        MIME_TYPES.put("xml", "application/xml");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("png", "image/png");
+        MIME_TYPES.put("jpg", "image/jpeg");
+        MIME_TYPES.put("jpeg", "image/jpeg");
+        MIME_TYPES.put("gif", "image/gif");
+        MIME_TYPES.put("ico", "image/x-icon");
+        MIME_TYPES.put("webp", "image/webp");
+        MIME_TYPES.put("pdf", "application/pdf");
+        MIME_TYPES.put("zip", "application/zip");
+        MIME_TYPES.put("wasm", "application/wasm");
+    }
+
+    // everything served has to be below this directory
+    private final Path docRoot = Paths.get("").toAbsolutePath().normalize();
+    // the same with symbolic links resolved, to check where links point to
+    private final Path realDocRoot = realPath(docRoot);
+
     // 
     public static void main(String args[]) {
         if (args.length != 1) {
@@ -15,80 +94,345 @@ class WebServer {
         WebServer server = new WebServer(Integer.parseInt(args[0]));
     }
 
+    /**
+     * Accepts connections on the port forever and hands each one to the worker pool
+     */
     public WebServer(int port) {
-        
-        ServerSocket    server = null;
-        Socket          sock = null;
-        InputStream     in = null;
-        OutputStream    out = null;
-
-        //*** Open the server socket on the specified port
-        //*** Loop forever accepting socket requests
-        //***   Get the response bytes from createResponse
-        //***   Write the bytes to the socket's output stream
-        //***   close streams and socket appropriatels
+
+        ExecutorService workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WORKER_QUEUE));
+
+        // opened through a channel so the accepted sockets have a SocketChannel
+        // which files can be transferred to without copying them onto the heap
+        try (ServerSocket server = ServerSocketChannel.open().socket()) {
+            server.bind(new InetSocketAddress(port), BACKLOG);
+            Log.info("Serving %s on port %d", docRoot, port);
+
+            while (!server.isClosed()) {
+                Socket sock;
+                try {
+                    sock = server.accept();
+                } catch (IOException e) {
+                    if (server.isClosed()) {
+                        break;
+                    }
+                    // a failed accept does not end the server, the connections being
+                    // served close and free up what was missing
+                    Log.error("Could not accept a connection on port %d", port, e);
+                    try {
+                        Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    workers.execute(() -> serve(sock));
+                } catch (RejectedExecutionException e) {
+                    // all workers busy and the queue is full, the answer fits into
+                    // the empty send buffer of the new socket so this does not block
+                    try (Socket busy = sock) {
+                        busy.getOutputStream().write(BUSY);
+                    } catch (IOException ignored) {
+                        // client is gone already
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Could not serve on port %d", port, e);
+        } finally {
+            workers.shutdown();
+        }
     }
 
+    /**
+     * Answers requests on the connection until the client closes it, asks to close it
+     * or does not send anything for READ_TIMEOUT_MILLIS
+     */
+    private void serve(Socket sock) {
+        try (Socket client = sock) {
+            client.setSoTimeout(READ_TIMEOUT_MILLIS);
+            client.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1));
+            WritableByteChannel out = client.getChannel() != null
+                ? client.getChannel() : Channels.newChannel(client.getOutputStream());
+
+            while (serve(in, out)) {
+                // next request on the same connection
+            }
+        } catch (SocketTimeoutException e) {
+            // idle keep-alive connection, just close it
+        } catch (IOException e) {
+            // the client went away in the middle of a request, nothing to tell it
+        }
+    }
 
+    /**
+     * Answers one request in memory: the same response serve() writes to a
+     * connection, as bytes. Handy for calling the server without a socket.
+     */
     public byte[] createResponse(InputStream inStream) {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try {
+            writeResponse(inStream, Channels.newChannel(response));
+        } catch (IOException e) {
+            // the request could not be read, whatever was answered so far is returned
+        }
+        return response.toByteArray();
+    }
 
-        byte[] response = null;
-        BufferedReader in = null;
+    /**
+     * Reads the request and writes the response straight to the channel. The file
+     * is never loaded onto the heap: FileChannel.transferTo hands it to the kernel
+     * which copies it to the socket (sendfile) when out is a socket channel. A
+     * single "Range: bytes=first-last" request header is honored.
+     */
+    public void writeResponse(InputStream inStream, WritableByteChannel out)
+        throws IOException {
 
-        try {
+        serve(new BufferedReader(new InputStreamReader(inStream, StandardCharsets.ISO_8859_1)), out);
+    }
 
-            // Read from socket's input stream.  Must use an
-            // InputStreamReader to bridge from streams to a reader
-            in = new BufferedReader(
-                        new InputStreamReader(inStream, "UTF-8"));
+    /**
+     * Reads one request from the connection and writes its response
+     *
+     * @return true if the connection stays open for the next request
+     */
+    private boolean serve(BufferedReader in, WritableByteChannel out)
+        throws IOException {
 
-            // Get header and save the filename from the GET line:
-            //    example GET format: GET /index.html HTTP/1.1
+        String requestLine = in.readLine();
+        if (requestLine == null) {
+            return false; // client closed the connection
+        }
 
-            String filename = null;
+        String range = null;
+        String acceptEncoding = null;
+        String connection = null;
 
-            boolean done = false;
-            while (!done) {
-                String line = in.readLine();
+        String line = in.readLine();
+        while (line != null && !line.equals("")) {
+            if (line.regionMatches(true, 0, "Range:", 0, 6)) {
+                range = line.substring(6).trim();
+            } else if (line.regionMatches(true, 0, "Accept-Encoding:", 0, 16)) {
+                acceptEncoding = line.substring(16).trim();
+            } else if (line.regionMatches(true, 0, "Connection:", 0, 11)) {
+                connection = line.substring(11).trim();
+            }
+            line = in.readLine();
+        }
+        if (line == null) {
+            return false; // header cut off
+        }
 
-System.out.println("Received: " + line);
-                if (line == null || line.equals(""))
-                    done = true;
+        // e.g. GET /index.html HTTP/1.1
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+            writeText(out, "400 Bad Request", "<html>Illegal request</html>", false);
+            return false;
+        }
+        // HTTP/1.1 keeps the connection unless told otherwise, HTTP/1.0 only when asked to
+        boolean keepAlive = parts[2].equals("HTTP/1.1")
+            ? !"close".equalsIgnoreCase(connection)
+            : "keep-alive".equalsIgnoreCase(connection);
 
-                else if (line.startsWith("GET")) {
-                    int firstSpace = line.indexOf(" ");
-                    int secondSpace = line.indexOf(" ", firstSpace+1);
+        if (!parts[0].equals("GET")) {
+            // the request body (if any) is not read, so it must not be taken for the next request
+            writeText(out, "405 Method Not Allowed", "Allow: GET\r\n",
+                "<html>Only GET is supported</html>", false);
+            return false;
+        }
 
-                    // skipt the leading / (our docroot is the current dir)
-                    filename = line.substring(firstSpace+2, secondSpace);
-                }
+        Path path;
+        try {
+            path = resolve(parts[1]);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            writeText(out, "400 Bad Request", "<html>Illegal path</html>", keepAlive);
+            return keepAlive;
+        }
+        if (path == null) {
+            writeText(out, "403 Forbidden", "<html>Forbidden</html>", keepAlive);
+            return keepAlive;
+        }
+        if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+            writeText(out, "404 Not Found", "<html>File not found</html>", keepAlive);
+            return keepAlive;
+        }
+        File file = path.toFile();
+        String close = keepAlive ? "" : "Connection: close\r\n";
 
+        try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+            long length = fileChannel.size();
+            String contentType = contentType(file.getName());
+
+            // text goes out compressed if the client takes it, the compressed
+            // variant is made once and then served from memory
+            String encoding = Compression.negotiate(acceptEncoding);
+            boolean compressible = Compression.isCompressible(contentType);
+            if (range == null && encoding != null && CompressedFiles.shouldCompress(contentType, length)) {
+                byte[] body = compressedFiles.get(file, encoding);
+                String header = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Encoding: " + encoding + "\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Vary: Accept-Encoding\r\n"
+                    + close
+                    + "\r\n";
+                writeFully(out, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+                writeFully(out, ByteBuffer.wrap(body));
+                return keepAlive;
             }
-System.out.println("FINISHED\n");
-
-
-            // Generate an appropriate response to the user
-            if (filename == null) {
-                response =
-                    "<html>Illegal request: no GET</html>".getBytes();
-            } else {
-            
-                File file = new File(filename);
-                if (!file.exists()) {
-                    response = ("<html>File not found: " +
-                                filename + "</html>").getBytes();
-                } else {
-                    response = readFileInBytes(file);
+
+            long first = 0;
+            long last = length - 1;
+            String status = "200 OK";
+            String extraHeader = "";
+
+            long[] parsed = parseRange(range, length);
+            if (parsed != null && parsed.length == 0) {
+                writeText(out, "416 Range Not Satisfiable", "Content-Range: bytes */" + length + "\r\n",
+                    "", keepAlive);
+                return keepAlive;
+            } else if (parsed != null) {
+                first = parsed[0];
+                last = parsed[1];
+                status = "206 Partial Content";
+                extraHeader = "Content-Range: bytes " + first + "-" + last + "/" + length + "\r\n";
+            }
+
+            String header = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + (last - first + 1) + "\r\n"
+                + "Accept-Ranges: bytes\r\n"
+                + (compressible ? "Vary: Accept-Encoding\r\n" : "")
+                + extraHeader
+                + close
+                + "\r\n";
+            writeFully(out, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+
+            long position = first;
+            while (position <= last) {
+                long sent = fileChannel.transferTo(position, last - position + 1, out);
+                if (sent <= 0 && position >= fileChannel.size()) {
+                    // the file got shorter since its length was taken, the promised
+                    // Content-Length cannot be met, so the connection has to go
+                    throw new IOException(file + " shrank while it was sent");
                 }
+                position += sent;
+            }
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Maps the request target to a file below the docroot. The target is decoded
+     * (%20 etc.), the query is dropped and "/" or a directory means its index.html.
+     *
+     * @return the file or null if the target points outside the docroot
+     */
+    Path resolve(String target) throws URISyntaxException {
+        String decoded = new URI(target).getPath();
+        if (decoded == null) {
+            throw new URISyntaxException(target, "No path");
+        }
+        // strip the leading slashes, an absolute path would replace the docroot
+        Path path = docRoot.resolve(decoded.replaceFirst("^/+", "")).normalize();
+        if (Files.isDirectory(path)) {
+            path = path.resolve("index.html");
+        }
+        if (!path.startsWith(docRoot)) {
+            return null; // "../" out of the docroot
+        }
+        try {
+            // a symbolic link below the docroot may still point anywhere
+            if (Files.exists(path) && !path.toRealPath().startsWith(realDocRoot)) {
+                return null;
             }
+        } catch (IOException e) {
+            return null;
+        }
+        return path;
+    }
+
+    private static Path realPath(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException e) {
+            return path;
         }
-        catch (IOException e) {
-            e.printStackTrace();
-            response = ("<html>ERROR: " +
-                        e.getMessage() + "</html>").getBytes();
+    }
+
+    /**
+     * @return the Content-Type for the file name
+     */
+    static String contentType(String name) {
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : MIME_TYPES.get(name.substring(dot + 1).toLowerCase());
+        if (type == null) {
+            type = URLConnection.guessContentTypeFromName(name);
+        }
+        return type == null ? "application/octet-stream" : type;
+    }
+
+    /**
+     * Parses a single "bytes=first-last", "bytes=first-" or "bytes=-suffixLength" range.
+     * @return null for the whole file, an empty array if the range cannot be
+     *     satisfied, otherwise first and last byte (inclusive)
+     */
+    static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                return suffix == 0 ? new long[0] : new long[] {Math.max(0, length - suffix), length - 1};
+            } else if (dash > 0) {
+                long first = Long.parseLong(spec.substring(0, dash));
+                long last = dash == spec.length() - 1
+                    ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash+1));
+                if (last < first) {
+                    return null;
+                }
+                return first >= length ? new long[0] : new long[] {first, Math.min(last, length - 1)};
+            }
+        } catch (NumberFormatException e) {
+            // ignore a broken Range header and send everything
         }
+        return null;
+    }
 
-        return response;
+    private static void writeText(WritableByteChannel out, String status, String body, boolean keepAlive)
+        throws IOException {
+        writeText(out, status, "", body, keepAlive);
+    }
+
+    /**
+     * @param extraHeaders - complete header lines, each ending in CRLF
+     */
+    private static void writeText(WritableByteChannel out, String status, String extraHeaders,
+                                  String body, boolean keepAlive)
+        throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 " + status + "\r\n"
+            + extraHeaders
+            + "Content-Type: text/html; charset=utf-8\r\n"
+            + "Content-Length: " + bytes.length + "\r\n"
+            + (keepAlive ? "" : "Connection: close\r\n")
+            + "\r\n";
+        writeFully(out, ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+        writeFully(out, ByteBuffer.wrap(bytes));
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
     }
 
     /** Read bytes from a file and return them in the byte array.
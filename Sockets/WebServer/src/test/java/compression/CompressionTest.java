@@ -0,0 +1,82 @@
+package compression;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionTest {
+
+  @Test
+  public void negotiate() {
+    assertNull(Compression.negotiate(null));
+    assertNull(Compression.negotiate(""));
+    assertNull(Compression.negotiate("identity"));
+    assertEquals("gzip", Compression.negotiate("gzip, deflate, br"));
+    assertEquals("gzip", Compression.negotiate("x-gzip"));
+    assertEquals("deflate", Compression.negotiate("deflate"));
+    assertEquals("gzip", Compression.negotiate("*"));
+  }
+
+  @Test
+  public void qualityZeroRefuses() {
+    assertEquals("deflate", Compression.negotiate("gzip;q=0, deflate"));
+    assertNull(Compression.negotiate("gzip;q=0"));
+    assertNull(Compression.negotiate("*;q=0"));
+    assertEquals("gzip", Compression.negotiate("gzip;q=0.5"));
+  }
+
+  @Test
+  public void explicitCodingWinsOverStar() {
+    assertEquals("deflate", Compression.negotiate("gzip;q=0, *"));
+    assertEquals("gzip", Compression.negotiate("*;q=0, gzip"));
+    assertNull(Compression.negotiate("gzip;q=0, deflate;q=0, *"));
+  }
+
+  @Test
+  public void compressible() {
+    assertTrue(Compression.isCompressible("text/html; charset=utf-8"));
+    assertTrue(Compression.isCompressible("application/json"));
+    assertTrue(Compression.isCompressible("image/svg+xml"));
+    assertFalse(Compression.isCompressible("image/png"));
+    assertFalse(Compression.isCompressible("application/zip"));
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("<li>line ").append(i).append("</li>\n");
+    }
+    byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+
+    byte[] gzip = Compression.compress(data, 0, data.length, Compression.GZIP, Deflater.DEFAULT_COMPRESSION);
+    assertTrue(gzip.length < data.length);
+    assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+
+    byte[] deflate = Compression.compress(data, 0, data.length, Compression.DEFLATE, Deflater.BEST_COMPRESSION);
+    assertArrayEquals(data, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+  }
+
+  @Test
+  public void roundTripOfAPart() throws IOException {
+    byte[] data = "xxhello hello hello hello helloyy".getBytes(StandardCharsets.US_ASCII);
+
+    byte[] gzip = Compression.compress(data, 2, data.length - 4, Compression.GZIP, Deflater.DEFAULT_COMPRESSION);
+    assertEquals("hello hello hello hello hello",
+        new String(readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))), StandardCharsets.US_ASCII));
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    try (InputStream stream = in) {
+      return stream.readAllBytes();
+    }
+  }
+}
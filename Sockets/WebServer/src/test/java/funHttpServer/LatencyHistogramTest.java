@@ -0,0 +1,61 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void empty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.percentile(0.99));
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int micros = 1; micros <= 10; micros++) {
+      histogram.record(micros);
+    }
+
+    assertEquals(10, histogram.getCount());
+    assertEquals(55, histogram.getSumMicros());
+    assertEquals(5, histogram.percentile(0.5));
+    assertEquals(10, histogram.percentile(1.0));
+  }
+
+  @Test
+  public void largeValuesWithin12Percent() {
+    for (long micros : new long[] {17, 100, 1000, 123456, 10000000000L}) {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(micros);
+
+      long bound = histogram.percentile(0.5);
+      assertTrue(micros + " -> " + bound, bound >= micros && bound <= micros * 1.125);
+    }
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(10);
+    }
+    histogram.record(5000);
+
+    assertEquals(10, histogram.percentile(0.5));
+    assertEquals(10, histogram.percentile(0.99));
+    assertTrue(histogram.percentile(0.999) >= 5000);
+  }
+
+  @Test
+  public void negativeCountsAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+
+    assertEquals(0, histogram.percentile(1.0));
+  }
+}
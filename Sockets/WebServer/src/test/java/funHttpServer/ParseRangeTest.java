@@ -0,0 +1,34 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParseRangeTest {
+
+  @Test
+  public void wholeFile() {
+    assertNull(WebServer.parseRange(null, 100));
+    assertNull(WebServer.parseRange("items=0-10", 100));
+    assertNull(WebServer.parseRange("bytes=0-10,20-30", 100)); // several ranges are not supported
+    assertNull(WebServer.parseRange("bytes=abc", 100));
+    assertNull(WebServer.parseRange("bytes=10-5", 100));
+  }
+
+  @Test
+  public void ranges() {
+    assertArrayEquals(new long[] {0, 9}, WebServer.parseRange("bytes=0-9", 100));
+    assertArrayEquals(new long[] {90, 99}, WebServer.parseRange("bytes=90-", 100));
+    assertArrayEquals(new long[] {90, 99}, WebServer.parseRange("bytes=-10", 100));
+    // a range past the end is cut to the file
+    assertArrayEquals(new long[] {50, 99}, WebServer.parseRange("bytes=50-500", 100));
+    assertArrayEquals(new long[] {0, 99}, WebServer.parseRange("bytes=-500", 100));
+  }
+
+  @Test
+  public void notSatisfiable() {
+    assertEquals(0, WebServer.parseRange("bytes=100-", 100).length);
+    assertEquals(0, WebServer.parseRange("bytes=200-300", 100).length);
+    assertEquals(0, WebServer.parseRange("bytes=-0", 100).length);
+  }
+}
@@ -0,0 +1,53 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueryTest {
+
+  @Test
+  public void values() {
+    Query query = new Query("num1=3&num2=4&name=a%20b+c&flag");
+
+    assertEquals(3, query.getInt("num1"));
+    assertEquals(4, query.getInt("num2"));
+    assertEquals("a b c", query.get("name"));
+    assertEquals("", query.get("flag"));
+    assertTrue(query.has("flag"));
+    assertFalse(query.has("num"));
+    assertNull(query.get("num"));
+  }
+
+  @Test
+  public void lastValueWins() {
+    Query query = new Query("x=1&y=2&x=3");
+
+    assertEquals("3", query.get("x"));
+    assertEquals(3, query.getInt("x"));
+  }
+
+  @Test
+  public void namesMatchWhole() {
+    Query query = new Query("xx=1&x=2");
+
+    assertEquals("2", query.get("x"));
+    assertEquals("1", query.get("xx"));
+  }
+
+  @Test
+  public void emptyQuery() {
+    assertFalse(new Query(null).has("x"));
+    assertFalse(new Query("").has("x"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void missingInt() {
+    new Query("a=1").getInt("b");
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void notAnInt() {
+    new Query("a=one").getInt("a");
+  }
+}
@@ -0,0 +1,135 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class RequestParserTest {
+
+  private final RequestParser parser = new RequestParser(1024, 64 * 1024);
+
+  /**
+   * Feeds the request in pieces of the given size, the way it arrives from a socket
+   * @return result of the last parse() call
+   */
+  private int feed(String request, int piece) {
+    byte[] bytes = request.getBytes(StandardCharsets.ISO_8859_1);
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+    int result = RequestParser.INCOMPLETE;
+    for (int i = 0; i < bytes.length && result == RequestParser.INCOMPLETE; i += piece) {
+      buffer.put(bytes, i, Math.min(piece, bytes.length - i));
+      buffer.flip();
+      result = parser.parse(buffer);
+      buffer.compact();
+    }
+    return result;
+  }
+
+  @Test
+  public void simpleGet() {
+    assertEquals(RequestParser.COMPLETE, feed("GET /multiply?num1=3&num2=4 HTTP/1.1\r\nHost: localhost\r\n\r\n", 1000));
+
+    HttpRequest request = parser.getRequest();
+    assertEquals("GET", request.getMethod());
+    assertEquals("multiply", request.getPath());
+    assertEquals("num1=3&num2=4", request.getQuery());
+    assertEquals("localhost", request.getHeader("host"));
+    assertTrue(request.isKeepAlive());
+    assertEquals(0, request.getBody().length);
+  }
+
+  @Test
+  public void byteByByte() {
+    assertEquals(RequestParser.COMPLETE, feed("GET /json HTTP/1.0\r\nConnection: keep-alive\r\n\r\n", 1));
+
+    HttpRequest request = parser.getRequest();
+    assertEquals("json", request.getPath());
+    assertTrue(request.isKeepAlive());
+  }
+
+  @Test
+  public void http10ClosesByDefault() {
+    assertEquals(RequestParser.COMPLETE, feed("GET / HTTP/1.0\r\n\r\n", 1000));
+    assertFalse(parser.getRequest().isKeepAlive());
+  }
+
+  @Test
+  public void incompleteUntilTheEmptyLine() {
+    assertEquals(RequestParser.INCOMPLETE, feed("GET / HTTP/1.1\r\nHost: x\r\n", 1000));
+  }
+
+  @Test
+  public void contentLengthBody() {
+    assertEquals(RequestParser.COMPLETE, feed("POST /echo HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello", 2));
+    assertEquals("hello", new String(parser.getRequest().getBody(), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void pipelinedRequests() {
+    ByteBuffer buffer = ByteBuffer.wrap("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+    assertEquals(RequestParser.COMPLETE, parser.parse(buffer));
+    assertEquals("a", parser.getRequest().getPath());
+    assertEquals(RequestParser.COMPLETE, parser.parse(buffer));
+    assertEquals("b", parser.getRequest().getPath());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void chunkedBody() {
+    String request = "POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+        + "5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nX-Trailer: 1\r\n\r\n";
+    for (int piece : new int[] {1, 3, 1000}) {
+      assertEquals(RequestParser.COMPLETE, feed(request, piece));
+      assertEquals("hello world", new String(parser.getRequest().getBody(), StandardCharsets.US_ASCII));
+    }
+  }
+
+  @Test
+  public void onlyPlainChunkedIsUnderstood() {
+    for (String coding : new String[] {"gzip, chunked", "gzip", "chunked, chunked"}) {
+      RequestParser parser = new RequestParser(1024, 64 * 1024);
+      ByteBuffer buffer = ByteBuffer.wrap(("POST / HTTP/1.1\r\nTransfer-Encoding: " + coding + "\r\n\r\n0\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII));
+      assertEquals(coding, RequestParser.ERROR, parser.parse(buffer));
+      assertEquals(coding, 501, parser.getErrorStatus());
+    }
+  }
+
+  @Test
+  public void badChunkSize() {
+    assertEquals(RequestParser.ERROR, feed("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n", 1000));
+    assertEquals(400, parser.getErrorStatus());
+  }
+
+  @Test
+  public void bodyTooLarge() {
+    assertEquals(RequestParser.ERROR, feed("POST / HTTP/1.1\r\nContent-Length: 100000\r\n\r\n", 1000));
+    assertEquals(413, parser.getErrorStatus());
+  }
+
+  @Test
+  public void chunkedBodyTooLarge() {
+    assertEquals(RequestParser.ERROR, feed("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n20000\r\n", 1000));
+    assertEquals(413, parser.getErrorStatus());
+  }
+
+  @Test
+  public void headerTooLarge() {
+    StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+    while (request.length() < 2000) {
+      request.append("X-Filler: 0123456789\r\n");
+    }
+    assertEquals(RequestParser.ERROR, feed(request.toString(), 100));
+    assertEquals(431, parser.getErrorStatus());
+  }
+
+  @Test
+  public void malformedRequestLine() {
+    assertEquals(RequestParser.ERROR, feed("GET\r\n\r\n", 1000));
+    assertEquals(400, parser.getErrorStatus());
+  }
+}
@@ -0,0 +1,30 @@
+package httpServer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParseRangeTest {
+
+    @Test
+    public void wholeFile() {
+        assertNull(WebServer.parseRange(null, 100));
+        assertNull(WebServer.parseRange("bytes=0-10,20-30", 100));
+        assertNull(WebServer.parseRange("bytes=x-", 100));
+        assertNull(WebServer.parseRange("bytes=10-5", 100));
+    }
+
+    @Test
+    public void ranges() {
+        assertArrayEquals(new long[] {0, 0}, WebServer.parseRange("bytes=0-0", 100));
+        assertArrayEquals(new long[] {10, 99}, WebServer.parseRange("bytes=10-", 100));
+        assertArrayEquals(new long[] {95, 99}, WebServer.parseRange("bytes=-5", 100));
+        assertArrayEquals(new long[] {10, 99}, WebServer.parseRange("bytes=10-1000", 100));
+    }
+
+    @Test
+    public void notSatisfiable() {
+        assertEquals(0, WebServer.parseRange("bytes=100-200", 100).length);
+        assertEquals(0, WebServer.parseRange("bytes=-0", 100).length);
+    }
+}
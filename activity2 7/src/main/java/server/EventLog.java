@@ -0,0 +1,351 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of the server events (connects, wins, ...).
+ *
+ * Every entry is written as one record: the tag of field 1, the length as a
+ * varint and the UTF-8 bytes. That is exactly how protobuf encodes one element
+ * of "repeated string log = 1", and protobuf messages can be concatenated, so
+ * every log file is still a valid Logs message and the existing logs.txt just
+ * keeps growing. Appending costs the same no matter how long the log already is.
+ *
+ * append() only queues the entry. A single writer thread takes everything that
+ * is queued, writes it with one write and syncs it to disk with one fsync
+ * (group commit), so many entries arriving together share one sync. The future
+ * returned by append() completes once the entry is on disk.
+ *
+ * When the file gets bigger than the segment size it is renamed to
+ * logs.txt.1, logs.txt.2, ... and a new logs.txt is started; only the newest
+ * segments are kept. If the rename fails, the log stays in logs.txt and is not
+ * rotated anymore. forEach() streams all entries, oldest first, without
+ * loading a file into memory. A record that was cut off by a crash is dropped
+ * when the log is opened again.
+ *
+ * Settings (system properties):
+ * logSegmentBytes - size at which logs.txt is rotated, default 1 MB
+ * logSegments     - rotated segments kept, default 10
+ */
+class EventLog {
+    final static long SEGMENT_BYTES = Long.getLong("logSegmentBytes", 1024 * 1024);
+    final static int SEGMENTS = Integer.getInteger("logSegments", 10);
+
+    // field 1, wire type 2 (length-delimited)
+    private final static int TAG = (1 << 3) | 2;
+    private final static int MAX_BATCH = 1024;
+
+    private final File file;
+    private final long segmentBytes;
+    private final int segments;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel;
+    private long size;
+    private boolean rotating = true; // false once a rename failed, only used by the writer
+    private volatile boolean closed;
+
+    /**
+     * Opens the log for appending, a torn record at its end is cut off
+     * @param filename - the active log file, rotated segments are next to it
+     * @param segmentBytes - size at which the file is rotated
+     * @param segments - rotated segments kept
+     * @throws IOException if the file cannot be opened
+     */
+    EventLog(String filename, long segmentBytes, int segments) throws IOException {
+        this.file = new File(filename);
+        this.segmentBytes = segmentBytes;
+        this.segments = segments;
+        openActive();
+
+        writer = new Thread(this::write, "event-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Queues an entry, it is written and synced by the writer thread
+     * @param entry - the log message
+     * @return completes when the entry is on disk
+     */
+    CompletableFuture<Void> append(String entry) {
+        Pending pending = new Pending(encode(entry));
+        if (!closed) {
+            queue.add(pending);
+            if (!closed || !queue.remove(pending)) {
+                return pending.done; // the writer takes it
+            }
+            // closed in between, the writer may have stopped already
+        }
+        pending.done.completeExceptionally(new IOException("Log is closed"));
+        return pending.done;
+    }
+
+    /**
+     * Writes what is still queued and closes the file
+     */
+    void close() {
+        closed = true;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Streams all entries of a log, the rotated segments first and oldest first
+     * @param filename - the active log file
+     * @param action - gets every entry
+     * @throws IOException if a file cannot be read
+     */
+    static void forEach(String filename, Consumer<String> action) throws IOException {
+        File active = new File(filename);
+        List<File> files = new ArrayList<>(rotated(active).values());
+        files.add(active);
+        for (File segment : files) {
+            if (!segment.isFile()) {
+                continue;
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(segment))) {
+                byte[] record;
+                while ((record = readRecord(in)) != null) {
+                    action.accept(new String(record, StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    /**
+     * The writer thread: writes and syncs whatever is queued in one go
+     */
+    private void write() {
+        List<Pending> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                continue; // close() decides when to stop
+            }
+
+            long start = size; // where the batch starts in the active file
+            try {
+                if (!channel.isOpen()) {
+                    // a rotation could not open the new file, try again
+                    openActive();
+                    start = size;
+                }
+                for (Pending pending : batch) {
+                    if (rotating && size > 0 && size + pending.record.length > segmentBytes) {
+                        rotate();
+                        start = size;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(pending.record);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    size += pending.record.length;
+                }
+                channel.force(false);
+                for (Pending pending : batch) {
+                    pending.done.complete(null);
+                }
+            } catch (IOException e) {
+                Log.error("Could not write %d log entries to %s", batch.size(), file, e);
+                for (Pending pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+                discard(start);
+            }
+            batch.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("Could not close %s: %s", file, e.toString());
+        }
+    }
+
+    /**
+     * Renames the full file to the next segment number, starts a new one and
+     * deletes the segments that are too old. If the rename fails, rotation is
+     * turned off and the log keeps growing in the active file. If the file cannot
+     * be opened again the channel stays closed and the next batch retries.
+     */
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        TreeMap<Integer, File> old = rotated(file);
+        int next = old.isEmpty() ? 1 : old.lastKey() + 1;
+        File segment = new File(file.getPath() + "." + next);
+        if (!file.renameTo(segment)) {
+            // keep appending to the big file rather than not at all, and do not
+            // try again for every batch
+            Log.error("Could not rename %s to %s, no more rotation", file, segment);
+            rotating = false;
+            openActive();
+            return;
+        }
+        old.put(next, segment);
+        while (old.size() > segments) {
+            File oldest = old.pollFirstEntry().getValue();
+            if (!oldest.delete()) {
+                Log.warn("Could not delete %s", oldest);
+            }
+        }
+        openActive();
+    }
+
+    /**
+     * Cuts a failed batch off the active file, a record it left half written
+     * would otherwise end the log for forEach() and for the next start, with
+     * everything appended after it
+     * @param length - where the batch started
+     */
+    private void discard(long length) {
+        try {
+            channel.truncate(length);
+            channel.position(length);
+            size = length;
+        } catch (IOException e) {
+            // opening the file again cuts off a torn record as well
+            Log.warn("Could not truncate %s, opening it again: %s", file, e.toString());
+            try {
+                channel.close();
+                openActive();
+            } catch (IOException again) {
+                Log.error("Could not open %s", file, again);
+            }
+        }
+    }
+
+    private void openActive() throws IOException {
+        size = validLength(file);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > size) {
+            Log.warn("%s ends in a torn record, cutting it off at %d bytes", file, size);
+            channel.truncate(size);
+        }
+        channel.position(size);
+    }
+
+    /**
+     * @return the rotated segments of a log by their number
+     */
+    private static TreeMap<Integer, File> rotated(File active) {
+        TreeMap<Integer, File> segments = new TreeMap<>();
+        File dir = active.getAbsoluteFile().getParentFile();
+        String prefix = active.getName() + ".";
+        File[] files = dir.listFiles((d, name) -> name.startsWith(prefix)
+                && name.length() > prefix.length()
+                && name.substring(prefix.length()).chars().allMatch(Character::isDigit));
+        if (files != null) {
+            for (File segment : files) {
+                try {
+                    segments.put(Integer.parseInt(segment.getName().substring(prefix.length())), segment);
+                } catch (NumberFormatException e) {
+                    // too many digits to be one of ours
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @return length of the complete records at the start of the file
+     */
+    private static long validLength(File file) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        long length = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            byte[] record;
+            while ((record = readRecord(in)) != null) {
+                length += 1 + varintSize(record.length) + record.length;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the next record or null at the end, also at a torn or unknown record
+     */
+    private static byte[] readRecord(InputStream in) throws IOException {
+        int tag = in.read();
+        if (tag != TAG) {
+            return null;
+        }
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0 || shift > 28) {
+                return null;
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0) {
+            return null;
+        }
+        byte[] record = in.readNBytes(length);
+        return record.length == length ? record : null;
+    }
+
+    private static byte[] encode(String entry) {
+        byte[] text = entry.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[1 + varintSize(text.length) + text.length];
+        int pos = 0;
+        record[pos++] = TAG;
+        int length = text.length;
+        while ((length & ~0x7F) != 0) {
+            record[pos++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        record[pos++] = (byte) length;
+        System.arraycopy(text, 0, record, pos, text.length);
+        return record;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private final static class Pending {
+        final byte[] record;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(byte[] record) {
+            this.record = record;
+        }
+    }
+}
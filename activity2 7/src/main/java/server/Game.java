@@ -1,27 +1,31 @@
 package server;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.io.*;
 
 /**
  * Class: Game
  * Description: Game class that can load an ASCII image.
  * This class can be used to hold the persistent state for a game for different threads.
- * Synchronization is not taken care of.
+ * Synchronization is taken care of without locks: the board of a game never
+ * changes, the cells guessed so far are one immutable bit array that a move
+ * replaces with compare-and-set. So a move is atomic (two players guessing the
+ * same cell at once get one hit and one "already guessed"), and every read sees
+ * the whole board as it was after one move, never half of two.
  * You can change this Class in any way you like or decide to not use it at all.
  * I used this class in my SockBaseServer to create a new game and keep track of the current image even on different threads.
  * My threads each get a reference to this Game.
  */
 public class Game {
-    private int idx = 0; // current index where x could be replaced with original
-    private int idxMax; // max index of image
-    private char[][] original; // the original image
-    private char[][] hidden; // the hidden image
-    private int col; // columns in original, approx
-    private int row; // rows in original and hidden
-    private boolean won; // if the game is won or not
+    // the lines of every board file, read once and shared by all games
+    private static final Map<String, List<String>> boards = new ConcurrentHashMap<>();
+
+    private volatile Board board = new Board(new ArrayList<String>()); // the current board and its moves
+    private volatile boolean won; // if the game is won or not
     private List<String> files = new ArrayList<String>(); // list of files, each file has one image
-    private int guesses = 0; // track number of guesses
 
     /**
      * Constructor initializes the game with preset image files.
@@ -44,56 +48,66 @@ public class Game {
 
     /**
      * Resets the game state and loads a new game board from a random file.
+     * A move that runs at the same time still goes to the old board.
      */
     public void resetGame() {
-        idx = 0;
         won = false;
-        guesses = 0;
-        List<String> rows = new ArrayList<String>();
-
-        try {
-            Random rand = new Random();
-            col = 0;
-            int randInt = rand.nextInt(files.size());
-            String fileName = files.get(randInt);
-            System.out.println("File " + fileName);
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(
-                    getClass().getClassLoader().getResourceAsStream(fileName)));
+        int randInt = ThreadLocalRandom.current().nextInt(files.size());
+        String fileName = files.get(randInt);
+        Log.debug("File %s", fileName);
+        List<String> rows = boards.computeIfAbsent(fileName, this::loadBoard);
+        if (rows == null) {
+            rows = Collections.emptyList(); // not cached, the next game tries again
+        }
+        board = new Board(rows);
+    }
 
+    /**
+     * Reads the lines of a board file from the resources.
+     * @param fileName The board file.
+     * @return The lines, null if the file cannot be read.
+     */
+    private List<String> loadBoard(String fileName) {
+        List<String> rows = new ArrayList<String>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream(fileName)))) {
             String line;
             while ((line = br.readLine()) != null) {
-                if (col < line.length()) {
-                    col = line.length();
-                }
                 rows.add(line);
             }
         } catch (Exception e) {
-            System.out.println("File load error: " + e);
+            Log.error("File load error: %s", e.toString());
+            return null;
         }
+        return Collections.unmodifiableList(rows);
+    }
 
-        String[] rowsASCII = rows.toArray(new String[0]);
-        row = rowsASCII.length;
-
-        original = new char[row][col];
-        int xCount = 0;
-        for (int i = 0; i < row; i++) {
-            char[] splitRow = rowsASCII[i].toCharArray();
-            for (int j = 0; j < splitRow.length; j++) {
-                original[i][j] = splitRow[j];
-                if (splitRow[j] == 'x') {
-                    xCount++;
-                }
-            }
+    /**
+     * Guesses one cell: reveals it, counts the guess and, for a ship, the hit.
+     * Atomic, a cell is only revealed by one guess.
+     * @param row The row index of the cell.
+     * @param column The column index of the cell.
+     * @return The outcome and the game right after the guess.
+     * @throws IndexOutOfBoundsException if the cell is not on the board.
+     */
+    public Move guess(int row, int column) {
+        Board b = board;
+        if (row < 0 || row >= b.row || column < 0 || column >= b.col) {
+            throw new IndexOutOfBoundsException("Row or column out of bounds.");
         }
-
-        hidden = new char[row][col];
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                hidden[i][j] = 'X';
+        int cell = row * b.col + column;
+        boolean hit = b.isShip(cell);
+        while (true) {
+            Moves moves = b.moves.get();
+            if (moves.isRevealed(cell)) {
+                return new Move(true, hit, b, moves);
+            }
+            Moves next = moves.reveal(cell, hit);
+            if (b.moves.compareAndSet(moves, next)) {
+                return new Move(false, hit, b, next);
             }
+            // another cell was guessed in between, try again on top of it
         }
-        setIdxMax(xCount);
     }
 
     /**
@@ -101,33 +115,19 @@ public class Game {
      * @return String representation of the hidden game board.
      */
     public String getImage() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("  1 2 3 4 5 6 7\n");
-        for (int i = 0; i < row; i++) {
-            sb.append((char) ('a' + i)).append(" ");
-            for (int j = 0; j < col; j++) {
-                sb.append(hidden[i][j]).append(' ');
-            }
-            sb.append('\n');
-        }
-        return sb.toString();
+        Board b = board;
+        return b.hiddenImage(b.moves.get());
     }
 
     /**
-     * Replaces one character on the hidden board with the corresponding character from the original board.
+     * Reveals one cell of the hidden board, counts the guess and, for a ship, the hit.
+     * A cell that was revealed already is not counted again.
      * @param row The row index of the character to replace.
      * @param column The column index of the character to replace.
-     * @return The updated hidden game board as a string.
+     * @return true if the cell is part of a ship.
      */
-    public String replaceOneCharacter(int row, int column) {
-        guesses++;
-        if (original[row][column] == 'x') {
-            hidden[row][column] = 'O'; // mark hit as 'O'
-            idx++;
-        } else {
-            hidden[row][column] = ' '; // mark miss as ' '
-        }
-        return getImage();
+    public boolean replaceOneCharacter(int row, int column) {
+        return guess(row, column).hit;
     }
 
     /**
@@ -135,32 +135,15 @@ public class Game {
      * @return String representation of the original game board.
      */
     public String getOriginalImage() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("  1 2 3 4 5 6 7\n");
-        for (int i = 0; i < row; i++) {
-            sb.append((char) ('a' + i)).append(" ");
-            for (int j = 0; j < col; j++) {
-                sb.append(original[i][j]).append(' ');
-            }
-            sb.append('\n');
-        }
-        return sb.toString();
-    }
-
-    /**
-     * Sets the maximum index value for the game board.
-     * @param idxMax The maximum index value.
-     */
-    public void setIdxMax(int idxMax) {
-        this.idxMax = idxMax;
+        return board.originalImage();
     }
 
     /**
      * Returns the current index value.
-     * @return The current index value.
+     * @return The current index value, the number of ship cells hit so far.
      */
     public int getIdx() {
-        return idx;
+        return board.moves.get().hits;
     }
 
     /**
@@ -170,7 +153,8 @@ public class Game {
      * @return true if the position has already been hit, false otherwise.
      */
     public boolean isAlreadyHit(int row, int column) {
-        return hidden[row][column] != 'X';
+        Board b = board;
+        return b.moves.get().isRevealed(row * b.col + column);
     }
 
     /**
@@ -180,30 +164,25 @@ public class Game {
      * @return true if the position is a hit, false otherwise.
      */
     public boolean isHit(int row, int column) {
-        return original[row][column] == 'x';
+        Board b = board;
+        return b.isShip(row * b.col + column);
     }
 
     /**
-     * Checks if the game is won.
+     * Checks if the game is won, i.e. every ship cell was hit.
      * @return true if the game is won, false otherwise.
      */
-    public synchronized boolean isWon() {
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
-                if (original[i][j] == 'x' && hidden[i][j] != 'O') {
-                    return false;
-                }
-            }
-        }
-        return true;
+    public boolean isWon() {
+        Board b = board;
+        return b.isWon(b.moves.get());
     }
 
     /**
      * Checks if the game is lost.
      * @return true if the game is lost, false otherwise.
      */
-    public synchronized boolean isLost() {
-        return guesses > 42; // lose if more than 42 guesses
+    public boolean isLost() {
+        return Board.isLost(board.moves.get());
     }
 
     /**
@@ -211,7 +190,7 @@ public class Game {
      * @return The number of rows.
      */
     public int getRow() {
-        return row;
+        return board.row;
     }
 
     /**
@@ -219,7 +198,7 @@ public class Game {
      * @return The number of columns.
      */
     public int getCol() {
-        return col;
+        return board.col;
     }
 
     /**
@@ -227,6 +206,144 @@ public class Game {
      * @return The number of guesses.
      */
     public int getGuesses() {
-        return guesses;
+        return board.moves.get().guesses;
+    }
+
+    /**
+     * The outcome of a guess and the game as it was right after it.
+     */
+    public static final class Move {
+        public final boolean old; // the cell was guessed before
+        public final boolean hit; // the cell is part of a ship
+        private final Board board;
+        private final Moves moves;
+
+        private Move(boolean old, boolean hit, Board board, Moves moves) {
+            this.old = old;
+            this.hit = hit;
+            this.board = board;
+            this.moves = moves;
+        }
+
+        public boolean isWon() {
+            return board.isWon(moves);
+        }
+
+        public boolean isLost() {
+            return Board.isLost(moves);
+        }
+
+        public int getGuesses() {
+            return moves.guesses;
+        }
+
+        /**
+         * @return The hidden game board right after the guess.
+         */
+        public String getImage() {
+            return board.hiddenImage(moves);
+        }
+    }
+
+    /**
+     * A board loaded from a file, never changed. Cell (r, c) is at index r * col + c.
+     */
+    private static final class Board {
+        final char[] original; // the original image, row after row
+        final BitSet ships = new BitSet(); // cells that are part of a ship
+        final int shipCells;
+        final int col; // columns in original, approx
+        final int row; // rows in original
+        final AtomicReference<Moves> moves;
+
+        Board(List<String> rows) {
+            int width = 0;
+            for (String line : rows) {
+                width = Math.max(width, line.length());
+            }
+            col = width;
+            row = rows.size();
+            original = new char[row * col];
+            for (int i = 0; i < row; i++) {
+                char[] splitRow = rows.get(i).toCharArray();
+                for (int j = 0; j < splitRow.length; j++) {
+                    original[i * col + j] = splitRow[j];
+                    if (splitRow[j] == 'x') {
+                        ships.set(i * col + j);
+                    }
+                }
+            }
+            shipCells = ships.cardinality();
+            moves = new AtomicReference<>(new Moves(new long[(row * col + 63) / 64], 0, 0));
+        }
+
+        boolean isShip(int cell) {
+            return ships.get(cell);
+        }
+
+        boolean isWon(Moves moves) {
+            return moves.hits >= shipCells;
+        }
+
+        static boolean isLost(Moves moves) {
+            return moves.guesses > 42; // lose if more than 42 guesses
+        }
+
+        /**
+         * X if a cell was not guessed yet, O for a hit, blank for a miss
+         */
+        String hiddenImage(Moves moves) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("  1 2 3 4 5 6 7\n");
+            for (int i = 0; i < row; i++) {
+                sb.append((char) ('a' + i)).append(" ");
+                for (int j = 0; j < col; j++) {
+                    int cell = i * col + j;
+                    char c = !moves.isRevealed(cell) ? 'X' : ships.get(cell) ? 'O' : ' ';
+                    sb.append(c).append(' ');
+                }
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        String originalImage() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("  1 2 3 4 5 6 7\n");
+            for (int i = 0; i < row; i++) {
+                sb.append((char) ('a' + i)).append(" ");
+                for (int j = 0; j < col; j++) {
+                    sb.append(original[i * col + j]).append(' ');
+                }
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The cells guessed so far, one bit per cell, with the number of guesses and
+     * hits. Never changed, a guess makes a new one.
+     */
+    private static final class Moves {
+        final long[] revealed;
+        final int guesses; // track number of guesses
+        final int hits; // number of ship cells hit so far
+
+        Moves(long[] revealed, int guesses, int hits) {
+            this.revealed = revealed;
+            this.guesses = guesses;
+            this.hits = hits;
+        }
+
+        boolean isRevealed(int cell) {
+            return (revealed[cell >>> 6] & (1L << cell)) != 0;
+        }
+
+        Moves reveal(int cell, boolean hit) {
+            long[] next = revealed.clone();
+            next[cell >>> 6] |= 1L << cell;
+            return new Moves(next, guesses + 1, hit ? hits + 1 : hits);
+        }
     }
 }
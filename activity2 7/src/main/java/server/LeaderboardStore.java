@@ -0,0 +1,236 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import client.Player;
+
+/**
+ * Keeps the leaderboard on disk without making the players wait for it.
+ *
+ * A login or a win only marks the player as changed. A background thread
+ * writes the changed players every leaderboardFlushMillis, so a player who
+ * changed ten times in between is written once. Their records are appended
+ * to a write-ahead log (leaderboard.txt.wal, same "name,points,logins" lines
+ * as leaderboard.txt) and synced; every line holds the whole record, so the
+ * last line of a player wins when the log is read back.
+ *
+ * When the write-ahead log has grown to leaderboardCompactRecords lines the
+ * whole leaderboard is written to a temporary file, synced and renamed over
+ * leaderboard.txt in one step, then the log is emptied. A crash at any point
+ * leaves either the old or the new leaderboard.txt plus a log that is
+ * replayed over it when the server starts again; a torn last line of the log
+ * is skipped. At most the changes of the last flush interval are lost.
+ *
+ * Settings (system properties):
+ * leaderboardFlushMillis    - default 1000
+ * leaderboardCompactRecords - default 10000
+ */
+class LeaderboardStore {
+    final static long FLUSH_MILLIS = Long.getLong("leaderboardFlushMillis", 1000);
+    final static int COMPACT_RECORDS = Integer.getInteger("leaderboardCompactRecords", 10000);
+
+    private final File file;
+    private final File wal;
+    // the shared leaderboard, every access to a Player is synchronized on it
+    private final Map<String, Player> players;
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "leaderboard-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private FileOutputStream walOut;
+    private int walRecords;
+
+    /**
+     * @param filename - the leaderboard file, the write-ahead log is next to it
+     * @param players - the leaderboard the store keeps on disk
+     */
+    LeaderboardStore(String filename, Map<String, Player> players) {
+        this.file = new File(filename);
+        this.wal = new File(filename + ".wal");
+        this.players = players;
+    }
+
+    /**
+     * Reads leaderboard.txt and the write-ahead log into the leaderboard and starts
+     * writing changes in the background
+     * @throws IOException if the files cannot be read or written
+     */
+    synchronized void load() throws IOException {
+        int loaded;
+        int replayed;
+        synchronized (players) {
+            loaded = read(file, false);
+            replayed = read(wal, true);
+        }
+        Log.info("Leaderboard: %d players from %s, %d changes from %s", loaded, file, replayed, wal);
+        boolean leftOver = wal.length() > 0;
+        walOut = new FileOutputStream(wal, true);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly));
+        if (leftOver) {
+            try {
+                compact(); // fold the changes of the last run (and a torn line) into leaderboard.txt
+            } catch (IOException e) {
+                // the changes stay in the write-ahead log, only the torn line has to go
+                // so the next record is not appended to it
+                Log.error("Could not compact %s, keeping it", wal, e);
+                walOut.getChannel().truncate(completeLength(wal));
+                walRecords = replayed;
+            }
+        }
+    }
+
+    /**
+     * Marks a player as changed, the record is written by the next flush.
+     * Never touches the disk.
+     * @param name - name of the player
+     */
+    void changed(String name) {
+        dirty.add(name);
+    }
+
+    /**
+     * Appends the changed players to the write-ahead log and syncs it
+     * @throws IOException if the log cannot be written, the players stay changed
+     */
+    synchronized void flush() throws IOException {
+        if (dirty.isEmpty() || walOut == null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        StringBuilder records = new StringBuilder();
+        synchronized (players) {
+            for (Iterator<String> it = dirty.iterator(); it.hasNext(); ) {
+                String name = it.next();
+                it.remove();
+                Player player = players.get(name);
+                if (player != null) {
+                    names.add(name);
+                    records.append(format(player)).append('\n');
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        try {
+            walOut.write(records.toString().getBytes(StandardCharsets.UTF_8));
+            walOut.getFD().sync();
+        } catch (IOException e) {
+            dirty.addAll(names); // try again with the next flush
+            throw e;
+        }
+        walRecords += names.size();
+        if (walRecords >= COMPACT_RECORDS) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes the whole leaderboard to leaderboard.txt with a rename and empties the
+     * write-ahead log
+     */
+    private void compact() throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (players) {
+            for (Player player : players.values()) {
+                lines.add(format(player));
+            }
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // everything in the log is in leaderboard.txt now
+        walOut.getChannel().truncate(0);
+        walOut.getFD().sync();
+        walRecords = 0;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            Log.error("Could not write the leaderboard", e);
+        }
+    }
+
+    /**
+     * Reads "name,points,logins" lines into the leaderboard, later lines replace earlier ones
+     * @param complete - only take lines ending in a newline, the last line of the
+     *                 write-ahead log may have been cut off by a crash
+     * @return number of records read
+     */
+    private int read(File from, boolean complete) throws IOException {
+        if (!from.isFile()) {
+            if (from == file) {
+                Log.info("%s: File not found. Starting a new leaderboard.", from);
+            }
+            return 0;
+        }
+        String text = new String(Files.readAllBytes(from.toPath()), StandardCharsets.UTF_8);
+        int end = complete ? text.lastIndexOf('\n') + 1 : text.length();
+        int records = 0;
+        for (String line : text.substring(0, end).split("\r?\n")) {
+            // from the end, so a name may contain commas
+            int logins = line.lastIndexOf(',');
+            int points = logins > 0 ? line.lastIndexOf(',', logins - 1) : -1;
+            if (points <= 0) {
+                continue;
+            }
+            try {
+                Player player = new Player(line.substring(0, points), 0);
+                player.setPoints(Integer.parseInt(line.substring(points + 1, logins)));
+                player.setLogins(Integer.parseInt(line.substring(logins + 1)));
+                players.put(player.getName(), player);
+                records++;
+            } catch (NumberFormatException e) {
+                Log.warn("Skipping broken leaderboard line in %s: %s", from, line);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return length of the complete lines at the start of the file
+     */
+    private static long completeLength(File from) throws IOException {
+        byte[] bytes = Files.readAllBytes(from.toPath());
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        return end;
+    }
+
+    private static String format(Player player) {
+        return player.getName() + "," + player.getPoints() + "," + player.getLogins();
+    }
+}
@@ -0,0 +1,89 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Matches the players into rooms and keeps track of all rooms.
+ *
+ * A player who starts a game is put into a room that still has space, the one
+ * waiting longest first, or into a new room when all are full. So the players
+ * are spread over many independent games of roomSize players each instead of
+ * all playing the same board, and a single server runs thousands of games.
+ * When a player leaves, the room takes the next player who comes along; a room
+ * everybody left is dropped.
+ *
+ * Matching takes the lock of the lobby, but only when a player joins or leaves
+ * a room. The moves of a game take no lock at all (see Game), so rooms never
+ * wait for each other or for the lobby.
+ *
+ * Settings (system properties):
+ * roomSize - players per room, default 2
+ */
+class Lobby {
+    final static int ROOM_SIZE = Math.max(1, Integer.getInteger("roomSize", 2));
+
+    private final int roomSize;
+    private final Map<Integer, Room> rooms = new ConcurrentHashMap<>();
+    // rooms with space left, longest waiting first, guarded by this
+    private final Set<Room> open = new LinkedHashSet<>();
+    private int nextId;
+
+    /**
+     * @param roomSize - players per room
+     */
+    Lobby(int roomSize) {
+        this.roomSize = roomSize;
+    }
+
+    /**
+     * Puts a player into a room with space left, or into a new room
+     * @param name - name of the player
+     * @return the room of the player
+     */
+    synchronized Room join(String name) {
+        Iterator<Room> it = open.iterator();
+        if (it.hasNext()) {
+            Room room = it.next();
+            room.join(name);
+            if (room.isFull()) {
+                it.remove();
+            }
+            return room;
+        }
+
+        Room room = new Room(++nextId, roomSize);
+        room.join(name);
+        rooms.put(room.id, room);
+        if (!room.isFull()) {
+            open.add(room);
+        }
+        Log.debug("Room %d opened, %d rooms", room.id, rooms.size());
+        return room;
+    }
+
+    /**
+     * Takes a player out of their room, the free place goes to the next player
+     * @param room - room of the player
+     * @param name - name of the player
+     */
+    synchronized void leave(Room room, String name) {
+        if (room.leave(name)) {
+            rooms.remove(room.id);
+            open.remove(room);
+            Log.debug("Room %d closed, %d rooms", room.id, rooms.size());
+        } else {
+            open.add(room);
+        }
+    }
+
+    /**
+     * @return number of rooms with players in them
+     */
+    int size() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,163 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import buffers.ResponseProtos.Entry;
+import buffers.ResponseProtos.Response;
+import client.Player;
+
+/**
+ * The leaderboard sorted by points (most first), then by name.
+ *
+ * The ranks live in a concurrent skip list, so an update is O(log n) and
+ * reading the top players or a page of them walks the list without a lock.
+ * Each rank is an immutable copy of the player, updates replace it.
+ *
+ * The LEADERBOARD response is the same for every client until the next
+ * update, so it is kept serialized (length-delimited, ready to be written to a
+ * socket) and only built again after something changed. Every update bumps a
+ * version; a cached response is only used if it was built at the current
+ * version, so a response built while an update ran is never handed out later.
+ *
+ * Settings (system properties):
+ * leaderboardSize - players in the LEADERBOARD response, default 100
+ */
+class RankedLeaderboard {
+    final static int SIZE = Integer.getInteger("leaderboardSize", 100);
+
+    private final static Comparator<Rank> ORDER = Comparator
+            .comparingInt((Rank rank) -> rank.points).reversed()
+            .thenComparing(rank -> rank.name);
+
+    private final ConcurrentSkipListSet<Rank> ranks = new ConcurrentSkipListSet<>(ORDER);
+    private final Map<String, Rank> byName = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicReference<Cached> response = new AtomicReference<>();
+    private final String menuOptions;
+
+    /**
+     * @param menuOptions - menu sent along with the LEADERBOARD response
+     */
+    RankedLeaderboard(String menuOptions) {
+        this.menuOptions = menuOptions;
+    }
+
+    /**
+     * Puts the current points and logins of a player in the ranking. Call it after
+     * every change, while the player cannot change.
+     * @param player - the changed player
+     */
+    void update(Player player) {
+        Rank rank = new Rank(player.getName(), player.getPoints(), player.getLogins());
+        byName.compute(rank.name, (name, old) -> {
+            if (old != null) {
+                ranks.remove(old);
+            }
+            ranks.add(rank);
+            return rank;
+        });
+        version.incrementAndGet();
+    }
+
+    /**
+     * @param count - number of players
+     * @return the best players, best first
+     */
+    List<Rank> top(int count) {
+        return page(0, count);
+    }
+
+    /**
+     * @param offset - ranks to skip, 0 starts with the best player
+     * @param count - number of players
+     * @return the players ranked offset + 1 to offset + count
+     */
+    List<Rank> page(int offset, int count) {
+        List<Rank> page = new ArrayList<>(Math.min(count, 64));
+        Iterator<Rank> it = ranks.iterator();
+        for (int i = 0; i < offset && it.hasNext(); i++) {
+            it.next();
+        }
+        while (page.size() < count && it.hasNext()) {
+            page.add(it.next());
+        }
+        return page;
+    }
+
+    /**
+     * @return number of ranked players
+     */
+    int size() {
+        return byName.size();
+    }
+
+    /**
+     * @return the LEADERBOARD response with the top players, length-delimited;
+     * shared between all callers, do not change it
+     */
+    byte[] response() {
+        long current = version.get();
+        Cached cached = response.get();
+        if (cached != null && cached.version == current) {
+            return cached.bytes;
+        }
+
+        Response.Builder builder = Response.newBuilder()
+                .setResponseType(Response.ResponseType.LEADERBOARD)
+                .setNext(Response.NextStep.MENU);
+        for (Rank rank : top(SIZE)) {
+            builder.addLeader(Entry.newBuilder()
+                    .setName(rank.name)
+                    .setPoints(rank.points)
+                    .setLogins(rank.logins)
+                    .build());
+        }
+        builder.setMenuoptions(menuOptions);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            builder.build().writeDelimitedTo(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen, it only writes to memory
+        }
+        // built from at least this version, a later update makes it stale
+        cached = new Cached(current, bytes.toByteArray());
+        response.set(cached);
+        return cached.bytes;
+    }
+
+    /**
+     * A player's place in the ranking at the time of an update
+     */
+    final static class Rank {
+        final String name;
+        final int points;
+        final int logins;
+
+        Rank(String name, int points, int logins) {
+            this.name = name;
+            this.points = points;
+            this.logins = logins;
+        }
+    }
+
+    private final static class Cached {
+        final long version;
+        final byte[] bytes;
+
+        Cached(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One battleship game and the players sharing it.
+ *
+ * Every room has its own Game and its own lock (the room itself), so players
+ * in different rooms never wait for each other. The lock guards the players,
+ * their points in the current game and starting and ending a game; the moves
+ * themselves take no lock at all, see Game.
+ */
+class Room {
+    final int id;
+    final int capacity;
+    final Game game = new Game();
+
+    private final Set<String> players = new LinkedHashSet<>();
+    private final Map<String, Integer> points = new HashMap<>();
+    private boolean closed; // left by everyone, the lobby dropped it
+    private boolean over; // the current game was won or lost
+
+    /**
+     * @param id - number of the room, for the log
+     * @param capacity - players that fit into the room
+     */
+    Room(int id, int capacity) {
+        this.id = id;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Takes a player into the room if there is space left
+     * @param name - name of the player
+     * @return false if the room is full or closed
+     */
+    synchronized boolean join(String name) {
+        if (closed || players.size() >= capacity) {
+            return false;
+        }
+        players.add(name);
+        return true;
+    }
+
+    /**
+     * Takes a player out of the room. A room nobody is left in is closed and
+     * cannot be joined anymore.
+     * @param name - name of the player
+     * @return true if the room is closed now
+     */
+    synchronized boolean leave(String name) {
+        players.remove(name);
+        points.remove(name);
+        if (players.isEmpty()) {
+            closed = true;
+        }
+        return closed;
+    }
+
+    /**
+     * @return true if the room is full or closed
+     */
+    synchronized boolean isFull() {
+        return closed || players.size() >= capacity;
+    }
+
+    /**
+     * Gets the game ready for a player who wants to play: a game that was won or
+     * lost is replaced by a new board, a running game is joined.
+     * @return true if the player starts a new game
+     */
+    synchronized boolean start() {
+        if (game.isWon() || game.isLost()) {
+            game.resetGame();
+        }
+        over = false;
+        boolean isNewGame = game.getIdx() == 0;
+        if (isNewGame) {
+            game.newGame();
+        }
+        return isNewGame;
+    }
+
+    /**
+     * Adds to the points a player made in the current game
+     * @param name - name of the player
+     * @param delta - points to add, negative for a miss
+     */
+    synchronized void addPoints(String name, int delta) {
+        points.merge(name, delta, Integer::sum);
+    }
+
+    /**
+     * Ends the current game. Only the first call after a game was won or lost
+     * gets the players, so the end of a game is handled once even if several
+     * players see it, or a late move sees it after a new game started.
+     * @return the players in the room, empty if the game was ended already
+     */
+    synchronized List<String> end() {
+        if (over || !(game.isWon() || game.isLost())) {
+            return Collections.emptyList();
+        }
+        over = true;
+        points.clear();
+        return new ArrayList<>(players);
+    }
+
+    /**
+     * @return number of players in the room
+     */
+    synchronized int size() {
+        return players.size();
+    }
+}
@@ -0,0 +1,114 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import buffers.ResponseProtos.Response;
+
+/**
+ * Runs the client sessions of the server and keeps track of them.
+ *
+ * Sessions run on virtual threads when the JVM has them (Java 21+), otherwise
+ * on a pool of platform threads that is never larger than the session limit.
+ * Either way there are never more than maxSessions sessions: a client beyond
+ * that gets an ERROR response and is disconnected instead of waiting
+ * unanswered for a free thread.
+ *
+ * Every session socket gets a read timeout, a player who has not sent anything
+ * for idleTimeoutMillis is disconnected so an abandoned client does not hold a
+ * session forever.
+ *
+ * Settings (system properties):
+ * maxSessions       - concurrent sessions, default 200
+ * idleTimeoutMillis - default 300000 (5 minutes)
+ */
+class SessionManager {
+    final static int MAX_SESSIONS = Integer.getInteger("maxSessions", 200);
+    final static int IDLE_TIMEOUT_MILLIS = Integer.getInteger("idleTimeoutMillis", 5 * 60 * 1000);
+
+    private final ExecutorService executor = createExecutor();
+    private final Map<Integer, SockBaseServer> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Starts a session for a freshly accepted client, or turns the client away if
+     * the server is full. Only called from the accept loop.
+     * @param clientSocket - the accepted socket
+     * @param lobby - lobby that puts the player into a room
+     */
+    void start(Socket clientSocket, Lobby lobby) {
+        if (sessions.size() >= MAX_SESSIONS) {
+            reject(clientSocket);
+            return;
+        }
+        try {
+            clientSocket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            Log.warn("Could not set the idle timeout: %s", e.toString());
+        }
+
+        int id = nextId.incrementAndGet();
+        SockBaseServer session = new SockBaseServer(clientSocket, lobby);
+        sessions.put(id, session);
+        try {
+            executor.execute(() -> {
+                try {
+                    session.start();
+                } catch (IOException e) {
+                    Log.error("Could not close the connection", e);
+                } finally {
+                    sessions.remove(id);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sessions.remove(id);
+            reject(clientSocket);
+        }
+    }
+
+    /**
+     * @return number of sessions currently running
+     */
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Tells the client the server is full and closes the connection
+     */
+    private void reject(Socket clientSocket) {
+        Log.warn("%d sessions running, turning away %s", sessions.size(), clientSocket.getRemoteSocketAddress());
+        try (Socket socket = clientSocket) {
+            Response.newBuilder()
+                    .setResponseType(Response.ResponseType.ERROR)
+                    .setMessage("The server is full, please try again later.")
+                    .build()
+                    .writeDelimitedTo(socket.getOutputStream());
+        } catch (IOException e) {
+            // the client is gone already, nothing to tell it
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // looked up instead of called so the server still builds and runs before Java 21
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            Log.info("Running every session on a virtual thread, at most %d sessions", MAX_SESSIONS);
+            return virtual;
+        } catch (ReflectiveOperationException e) {
+            // start() never lets more than MAX_SESSIONS run, so the pool never has to queue
+            Log.info("Running sessions on at most %d threads", MAX_SESSIONS);
+            return new ThreadPoolExecutor(0, MAX_SESSIONS, 60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        }
+    }
+}
@@ -9,7 +9,6 @@ import buffers.RequestProtos.Request;
 import buffers.RequestProtos.Logs;
 import buffers.RequestProtos.Message;
 import buffers.ResponseProtos.Response;
-import buffers.ResponseProtos.Entry;
 
 /**
  * SockBaseServer handles client connections, processes requests, and maintains game and leaderboard state.
@@ -17,30 +16,31 @@ import buffers.ResponseProtos.Entry;
 class SockBaseServer {
     static String logFilename = "logs.txt";
     static String leaderboardFilename = "leaderboard.txt";
+    private static EventLog eventLog;
     InputStream in = null;
     OutputStream out = null;
     Socket clientSocket = null;
     int port = 9099; // default port
-    Game game;
+    Lobby lobby;
+    Room room; // the room of the player, null until they start a game
     static Map<String, Player> leaderboard = Collections.synchronizedMap(new HashMap<>());
-    Set<String> playersInGame = Collections.synchronizedSet(new HashSet<>());
-    Map<String, Integer> currentGamePoints = Collections.synchronizedMap(new HashMap<>());
+    static LeaderboardStore leaderboardStore;
+    static RankedLeaderboard ranking = new RankedLeaderboard("1 - View Leaderboard\n2 - Play Game\n3 - Quit");
 
     /**
      * Constructor for SockBaseServer
      * @param sock - client socket
-     * @param game - game instance
+     * @param lobby - lobby that puts the player into a room
      */
-    public SockBaseServer(Socket sock, Game game) {
+    public SockBaseServer(Socket sock, Lobby lobby) {
         this.clientSocket = sock;
-        this.game = game;
+        this.lobby = lobby;
         try {
             in = clientSocket.getInputStream();
             out = clientSocket.getOutputStream();
         } catch (Exception e) {
-            System.out.println("Error in constructor: " + e);
+            Log.warn("Error in constructor: %s", e.toString());
         }
-        loadLeaderboard(); // Load the leaderboard when the server starts
     }
 
     /**
@@ -49,7 +49,7 @@ class SockBaseServer {
      */
     public void start() throws IOException {
         String name = "";
-        System.out.println("Ready...");
+        Log.info("Ready...");
         try {
             // Continuously listen for client requests
             while (true) {
@@ -70,10 +70,10 @@ class SockBaseServer {
                                 leaderboard.put(name, player);
                             }
                             player.setLogins(player.getLogins() + 1);
-                            saveLeaderboard();
+                            ranking.update(player);
+                            leaderboardStore.changed(name); // written in the background
                         }
-                        currentGamePoints.put(name, 0); // Initialize points for the new game
-                        System.out.println("Got a connection and a name: " + name);
+                        Log.info("Got a connection and a name: %s", name);
                         greetingMessage(name);
                         break;
 
@@ -83,23 +83,24 @@ class SockBaseServer {
                         break;
 
                     case START:
-                        // Process START request: reset the game if won or lost, and start a new game
-                        if (game.isWon() || game.isLost()) {
-                            game.resetGame();
+                        // Process START request: join a room, its game is reset if won or lost
+                        if (room == null) {
+                            room = lobby.join(name);
                         }
-                        playersInGame.add(name);
                         gameStart();
                         break;
 
                     case ROWCOL:
                         // Process ROWCOL request: handle the player's move
+                        if (room == null) {
+                            errorMessage("Start a game first.");
+                            break;
+                        }
                         playerMove(op.getRow(), op.getColumn(), name);
                         break;
 
                     case QUIT:
-                        // Process QUIT request: remove the player from the game and send a goodbye message
-                        playersInGame.remove(name);
-                        currentGamePoints.remove(name);
+                        // Process QUIT request: send a goodbye message, the player leaves the room below
                         goodbyeMessage();
                         return;
 
@@ -109,9 +110,16 @@ class SockBaseServer {
                         break;
                 }
             }
+        } catch (SocketTimeoutException ex) {
+            Log.info("%s was idle for %d ms, closing the session", name, SessionManager.IDLE_TIMEOUT_MILLIS);
         } catch (Exception ex) {
-            ex.printStackTrace();
+            Log.error("Connection of %s failed", name, ex);
         } finally {
+            // Free the place in the room, also when the client just went away
+            if (room != null) {
+                lobby.leave(room, name);
+                room = null;
+            }
             // Close the input, output, and client socket
             if (out != null) out.close();
             if (in != null) in.close();
@@ -138,21 +146,7 @@ class SockBaseServer {
      * @throws IOException
      */
     private void sendLeaderboard() throws IOException {
-        Response.Builder responseBuilder = Response.newBuilder()
-                .setResponseType(Response.ResponseType.LEADERBOARD)
-                .setNext(Response.NextStep.MENU);
-        synchronized (leaderboard) {
-            for (Player player : leaderboard.values()) {
-                Entry entry = Entry.newBuilder()
-                        .setName(player.getName())
-                        .setPoints(player.getPoints())
-                        .setLogins(player.getLogins())
-                        .build();
-                responseBuilder.addLeader(entry);
-            }
-        }
-        responseBuilder.setMenuoptions("1 - View Leaderboard\n2 - Play Game\n3 - Quit");
-        responseBuilder.build().writeDelimitedTo(out);
+        out.write(ranking.response());
     }
 
     /**
@@ -160,10 +154,8 @@ class SockBaseServer {
      * @throws IOException
      */
     private void gameStart() throws IOException {
-        boolean isNewGame = game.getIdx() == 0;
-        if (isNewGame) {
-            game.newGame();
-        }
+        Game game = room.game;
+        boolean isNewGame = room.start();
         Response response = Response.newBuilder()
                 .setResponseType(Response.ResponseType.START)
                 .setBoard(game.getImage())
@@ -173,7 +165,7 @@ class SockBaseServer {
         response.writeDelimitedTo(out);
 
         // Print the original game board to the server console for debugging purposes
-        System.out.println(game.getOriginalImage());
+        Log.info("Room %d board:%n%s", room.id, game.getOriginalImage());
     }
 
     /**
@@ -184,38 +176,40 @@ class SockBaseServer {
      * @throws IOException
      */
     private void playerMove(int row, int column, String playerName) throws IOException {
-        // Check if the row and column are within the game board bounds
-        if (row < 0 || row >= game.getRow() || column < 0 || column >= game.getCol()) {
-            errorMessage("Row or column out of bounds.");
-            return;
-        }
-
+        Game game = room.game;
         Response.EvalType evalType;
         String message;
-        int currentPoints = currentGamePoints.getOrDefault(playerName, 0);
 
-        // Check if the spot was already guessed
-        if (game.isAlreadyHit(row, column)) {
+        // Guess the spot, one atomic step even if another player guesses the same spot
+        Game.Move move;
+        try {
+            move = game.guess(row, column);
+        } catch (IndexOutOfBoundsException e) {
+            // The row and column are not within the game board bounds
+            errorMessage(e.getMessage());
+            return;
+        }
+        if (move.old) {
             evalType = Response.EvalType.OLD;
             message = "You already guessed this spot!";
-        } else if (game.isHit(row, column)) {
-            game.replaceOneCharacter(row, column);
-            currentPoints += 1; // Add 1 point for a hit
+        } else if (move.hit) {
+            room.addPoints(playerName, 1); // Add 1 point for a hit
             evalType = Response.EvalType.HIT;
             message = "That's a hit!";
         } else {
-            game.replaceOneCharacter(row, column);
-            currentPoints -= 1; // Subtract 1 point for a miss
+            room.addPoints(playerName, -1); // Subtract 1 point for a miss
             evalType = Response.EvalType.MISS;
             message = "You missed!";
         }
 
-        currentGamePoints.put(playerName, currentPoints);
-
-        // Check if the game is won or lost
-        if (game.isWon()) {
+        // Check if the game is won or lost, as it was right after this move
+        boolean won = move.isWon();
+        boolean lost = !won && move.isLost();
+        if (won) {
             evalType = Response.EvalType.WON;
             message = "Congratulations, you won!";
+            // every player of the room wins, counted once even if several see the last hit
+            List<String> playersInGame = room.end();
             synchronized (leaderboard) {
                 for (String playerInGame : playersInGame) {
                     Player player = leaderboard.get(playerInGame);
@@ -226,30 +220,28 @@ class SockBaseServer {
                         player.setPoints(1);
                         leaderboard.put(playerInGame, player);
                     }
+                    ranking.update(player);
+                    leaderboardStore.changed(playerInGame);
                 }
-                saveLeaderboard();
             }
-            playersInGame.clear();
-            currentGamePoints.clear();
-        } else if (game.isLost()) {
+        } else if (lost) {
             evalType = Response.EvalType.LOST;
             message = "You lost the game!";
-            playersInGame.clear();
-            currentGamePoints.clear();
+            room.end();
         }
 
         // Send the response to the client
         Response response = Response.newBuilder()
-                .setResponseType(game.isWon() || game.isLost() ? Response.ResponseType.DONE : Response.ResponseType.PLAY)
-                .setBoard(game.getImage())
+                .setResponseType(won || lost ? Response.ResponseType.DONE : Response.ResponseType.PLAY)
+                .setBoard(move.getImage())
                 .setEval(evalType)
-                .setMessage(message + " Number of guesses: " + game.getGuesses())
-                .setNext(game.isWon() || game.isLost() ? Response.NextStep.MENU : Response.NextStep.TILE)
+                .setMessage(message + " Number of guesses: " + move.getGuesses())
+                .setNext(won || lost ? Response.NextStep.MENU : Response.NextStep.TILE)
                 .build();
         response.writeDelimitedTo(out);
 
         // Print the original game board to the server console for grading purposes
-        System.out.println(game.getOriginalImage());
+        Log.info("Room %d board:%n%s", room.id, game.getOriginalImage());
     }
 
     /**
@@ -279,90 +271,59 @@ class SockBaseServer {
     }
 
     /**
-     * Writing a new entry to our log
+     * Writing a new entry to our log. The entry is only appended, the writer
+     * thread of the log puts it on disk together with what else came in.
      * @param name - Name of the person logging in
      * @param message - type Message from Protobuf which is the message to be written in the log (e.g. Connect)
      */
     public static void writeToLog(String name, Message message) {
         try {
-            Logs.Builder logs = readLogFile(); // Read the existing log file
-
             Date date = java.util.Calendar.getInstance().getTime();
-            System.out.println(date);
-
-            // Add a new log entry to the logs object
-            logs.addLog(date.toString() + ": " + name + " - " + message);
-
-            // Write the updated logs object to the log file
-            FileOutputStream output = new FileOutputStream(logFilename);
-            Logs logsObj = logs.build();
-
-            // Print the log entries to the console for debugging
-            for (String log : logsObj.getLogList()) {
-                System.out.println(log);
-            }
+            String entry = date.toString() + ": " + name + " - " + message;
+            Log.debug("%s", entry);
+            eventLog().append(entry);
+        } catch (IOException e) {
+            Log.warn("Issue while trying to save %s", logFilename, e);
+        }
+    }
 
-            logsObj.writeTo(output);
-        } catch (Exception e) {
-            System.out.println("Issue while trying to save");
+    /**
+     * @return the log in logFilename, opened on first use
+     */
+    static synchronized EventLog eventLog() throws IOException {
+        if (eventLog == null) {
+            eventLog = new EventLog(logFilename, EventLog.SEGMENT_BYTES, EventLog.SEGMENTS);
         }
+        return eventLog;
     }
 
     /**
-     * Reading the current log file
+     * Reading the current log file, rotated segments included. Loads every entry,
+     * use EventLog.forEach to go through them one by one instead.
      * @return Logs.Builder a builder of a logs entry from protobuf
      * @throws Exception
      */
     public static Logs.Builder readLogFile() throws Exception {
         Logs.Builder logs = Logs.newBuilder();
-
-        try {
-            // Merge the existing log file content into the logs object
-            return logs.mergeFrom(new FileInputStream(logFilename));
-        } catch (FileNotFoundException e) {
-            System.out.println(logFilename + ": File not found. Creating a new file.");
-            return logs;
-        }
+        EventLog.forEach(logFilename, logs::addLog);
+        return logs;
     }
 
     /**
-     * Saves the current state of the leaderboard to a file.
+     * Loads the leaderboard from leaderboard.txt, once when the server starts; all
+     * sessions share it. From then on changes are written in the background.
      */
-    private synchronized void saveLeaderboard() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(leaderboardFilename))) {
-            // Write each player's details to the leaderboard file
-            for (Player player : leaderboard.values()) {
-                writer.write(player.getName() + "," + player.getPoints() + "," + player.getLogins());
-                writer.newLine();
-            }
+    static synchronized void loadLeaderboard() {
+        leaderboardStore = new LeaderboardStore(leaderboardFilename, leaderboard);
+        try {
+            leaderboardStore.load();
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("Could not load %s", leaderboardFilename, e);
         }
-    }
-
-    /**
-     * Loads the leaderboard from a file.
-     */
-    private synchronized void loadLeaderboard() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(leaderboardFilename))) {
-            String line;
-            // Read each line from the leaderboard file and update the leaderboard map
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 3) {
-                    String name = parts[0];
-                    int points = Integer.parseInt(parts[1]);
-                    int logins = Integer.parseInt(parts[2]);
-                    Player player = new Player(name, 0);
-                    player.setPoints(points);
-                    player.setLogins(logins);
-                    leaderboard.put(name, player);
-                }
+        synchronized (leaderboard) {
+            for (Player player : leaderboard.values()) {
+                ranking.update(player);
             }
-        } catch (FileNotFoundException e) {
-            System.out.println(leaderboardFilename + ": File not found. Starting a new leaderboard.");
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
@@ -372,8 +333,6 @@ class SockBaseServer {
      * @throws Exception
      */
     public static void main(String args[]) throws Exception {
-        Game game = new Game();
-
         if (args.length != 2) {
             System.out.println("Expected arguments: <port(int)> <delay(int)>");
             System.exit(1);
@@ -387,18 +346,14 @@ class SockBaseServer {
             System.out.println("[Port|sleepDelay] must be an integer");
             System.exit(2);
         }
+        loadLeaderboard();
+        Lobby lobby = new Lobby(Lobby.ROOM_SIZE);
+        SessionManager sessions = new SessionManager();
         ServerSocket serv = new ServerSocket(port);
 
         while (true) {
             Socket clientSocket = serv.accept();
-            SockBaseServer server = new SockBaseServer(clientSocket, game);
-            new Thread(() -> {
-                try {
-                    server.start();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }).start();
+            sessions.start(clientSocket, lobby);
             Thread.sleep(sleepDelay);
         }
     }
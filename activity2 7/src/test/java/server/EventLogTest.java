@@ -0,0 +1,126 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class EventLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> readAll(String filename) throws IOException {
+        List<String> entries = new ArrayList<>();
+        EventLog.forEach(filename, entries::add);
+        return entries;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        String filename = new File(folder.getRoot(), "logs.txt").getPath();
+        EventLog log = new EventLog(filename, 1024 * 1024, 10);
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            written.add(log.append("entry " + i));
+        }
+        for (CompletableFuture<Void> done : written) {
+            done.get();
+        }
+        log.close();
+
+        List<String> entries = readAll(filename);
+        assertEquals(100, entries.size());
+        assertEquals("entry 0", entries.get(0));
+        assertEquals("entry 99", entries.get(99));
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws Exception {
+        String filename = new File(folder.getRoot(), "logs.txt").getPath();
+        EventLog log = new EventLog(filename, 1024 * 1024, 10);
+        log.append("first").get();
+        log.append("second").get();
+        log.close();
+
+        // a crash in the middle of a write: the tag, a length of 20 and 3 bytes
+        long complete = new File(filename).length();
+        try (FileOutputStream out = new FileOutputStream(filename, true)) {
+            out.write(new byte[] {(1 << 3) | 2, 20, 'a', 'b', 'c'});
+        }
+        assertEquals(2, readAll(filename).size());
+
+        log = new EventLog(filename, 1024 * 1024, 10);
+        assertEquals(complete, new File(filename).length());
+        log.append("third").get();
+        log.close();
+
+        List<String> entries = readAll(filename);
+        assertEquals(3, entries.size());
+        assertEquals("third", entries.get(2));
+    }
+
+    @Test
+    public void unknownBytesEndTheLog() throws Exception {
+        String filename = new File(folder.getRoot(), "logs.txt").getPath();
+        EventLog log = new EventLog(filename, 1024 * 1024, 10);
+        log.append("first").get();
+        log.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.seek(file.length());
+            file.write("garbage".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        log = new EventLog(filename, 1024 * 1024, 10);
+        log.append("second").get();
+        log.close();
+
+        List<String> entries = readAll(filename);
+        assertEquals(2, entries.size());
+        assertEquals("second", entries.get(1));
+    }
+
+    @Test
+    public void rotation() throws Exception {
+        String filename = new File(folder.getRoot(), "logs.txt").getPath();
+        // every record is 12 bytes, so a segment holds 8 of them
+        EventLog log = new EventLog(filename, 100, 2);
+        for (int i = 0; i < 40; i++) {
+            log.append(String.format("entry %04d", i)).get();
+        }
+        log.close();
+
+        assertTrue(new File(filename + ".1").isFile() || new File(filename + ".3").isFile());
+        String[] files = folder.getRoot().list((dir, name) -> name.startsWith("logs.txt."));
+        assertEquals(2, files.length);
+        for (String name : files) {
+            assertTrue(name, new File(folder.getRoot(), name).length() <= 100);
+        }
+
+        // the oldest segments are gone, the rest is still in order
+        List<String> entries = readAll(filename);
+        assertEquals("entry 0039", entries.get(entries.size() - 1));
+        for (int i = 1; i < entries.size(); i++) {
+            assertTrue(entries.get(i - 1).compareTo(entries.get(i)) < 0);
+        }
+    }
+
+    @Test
+    public void appendAfterClose() throws Exception {
+        EventLog log = new EventLog(new File(folder.getRoot(), "logs.txt").getPath(), 1024 * 1024, 10);
+        log.close();
+
+        assertTrue(log.append("late").isCompletedExceptionally());
+    }
+}
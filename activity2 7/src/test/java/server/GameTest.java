@@ -0,0 +1,69 @@
+package server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class GameTest {
+
+    @Test
+    public void guessOnce() {
+        Game game = new Game();
+        game.newGame();
+
+        Game.Move first = game.guess(0, 0);
+        assertFalse(first.old);
+        assertEquals(1, first.getGuesses());
+
+        Game.Move again = game.guess(0, 0);
+        assertTrue(again.old);
+        assertEquals(first.hit, again.hit);
+        assertEquals(1, again.getGuesses());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void offTheBoard() {
+        Game game = new Game();
+        game.newGame();
+        game.guess(game.getRow(), 0);
+    }
+
+    @Test
+    public void concurrentGuessesRevealEveryCellOnce() throws Exception {
+        Game game = new Game();
+        game.newGame();
+        int cells = game.getRow() * game.getCol();
+
+        // every thread guesses every cell, only one guess per cell may count
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            results.add(pool.submit(() -> {
+                int counted = 0;
+                for (int row = 0; row < game.getRow(); row++) {
+                    for (int col = 0; col < game.getCol(); col++) {
+                        if (!game.guess(row, col).old) {
+                            counted++;
+                        }
+                    }
+                }
+                return counted;
+            }));
+        }
+        int counted = 0;
+        for (Future<Integer> result : results) {
+            counted += result.get();
+        }
+        pool.shutdown();
+
+        assertEquals(cells, counted);
+        assertEquals(cells, game.getGuesses());
+        assertTrue(game.isWon());
+    }
+}
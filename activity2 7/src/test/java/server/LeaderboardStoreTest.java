@@ -0,0 +1,100 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import client.Player;
+
+public class LeaderboardStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void replaysTheLog() throws Exception {
+        File file = new File(folder.getRoot(), "leaderboard.txt");
+        write(file, "anna,10,1\nbob,5,2\n");
+        write(new File(file.getPath() + ".wal"), "anna,11,1\ncarl,1,1\nanna,12,2\nbob,7,3");
+
+        Map<String, Player> players = new HashMap<>();
+        new LeaderboardStore(file.getPath(), players).load();
+
+        assertEquals(3, players.size());
+        // the last complete line of a player wins
+        assertEquals(12, players.get("anna").getPoints());
+        assertEquals(2, players.get("anna").getLogins());
+        assertEquals(1, players.get("carl").getPoints());
+        // the torn last line is not replayed
+        assertEquals(5, players.get("bob").getPoints());
+
+        // the replayed log was folded into the leaderboard
+        assertEquals(0, new File(file.getPath() + ".wal").length());
+        Map<String, Player> again = new HashMap<>();
+        new LeaderboardStore(file.getPath(), again).load();
+        assertEquals(12, again.get("anna").getPoints());
+        assertEquals(5, again.get("bob").getPoints());
+    }
+
+    @Test
+    public void namesWithCommas() throws Exception {
+        File file = new File(folder.getRoot(), "leaderboard.txt");
+        write(file, "a,b,3,4\nbroken line\nx,y,z\n");
+
+        Map<String, Player> players = new HashMap<>();
+        new LeaderboardStore(file.getPath(), players).load();
+
+        assertEquals(1, players.size());
+        assertEquals(3, players.get("a,b").getPoints());
+        assertEquals(4, players.get("a,b").getLogins());
+    }
+
+    @Test
+    public void flushAppendsChangedPlayers() throws Exception {
+        File file = new File(folder.getRoot(), "leaderboard.txt");
+        Map<String, Player> players = new HashMap<>();
+        LeaderboardStore store = new LeaderboardStore(file.getPath(), players);
+        store.load();
+
+        Player anna = new Player("anna", 0);
+        players.put("anna", anna);
+        for (int points = 1; points <= 5; points++) {
+            anna.setPoints(points);
+            store.changed("anna");
+        }
+        store.changed("nobody");
+        store.flush();
+
+        // changed five times, written once
+        assertEquals("anna,5," + anna.getLogins() + "\n", read(new File(file.getPath() + ".wal")));
+
+        Map<String, Player> restarted = new HashMap<>();
+        new LeaderboardStore(file.getPath(), restarted).load();
+        assertEquals(5, restarted.get("anna").getPoints());
+    }
+
+    @Test
+    public void newLeaderboard() throws Exception {
+        Map<String, Player> players = new HashMap<>();
+        new LeaderboardStore(new File(folder.getRoot(), "leaderboard.txt").getPath(), players).load();
+
+        assertTrue(players.isEmpty());
+    }
+}